@@ -0,0 +1,59 @@
+package de.medieninformatik.common;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Misst die öffentliche Schnittstelle von {@link Message} im Text- und Binärformat.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBenchmark {
+    @Param({"JOIN", "SEND", "LEAVE"})
+    public String actionName;
+
+    private Message message;
+    private String text;
+    private ByteBuffer binary;
+
+    @Setup
+    public void setup() {
+        Message.Action action = Message.Action.getFromString(actionName);
+        message = action == Message.Action.SEND
+                ? new Message(action, "benchmark", "Hallo \"Welt\", wie geht's?")
+                : new Message(action, "benchmark");
+        text = message.toString();
+        binary = MessageCodec.encodeBinary(message);
+    }
+
+    @Benchmark
+    public Message.Action actionGetFromString() {
+        return Message.Action.getFromString(actionName);
+    }
+
+    @Benchmark
+    public Message getFromString() {
+        return Message.getFromString(text);
+    }
+
+    @Benchmark
+    public String messageToString() {
+        return message.toString();
+    }
+
+    @Benchmark
+    public ByteBuffer encodeBinary() {
+        return MessageCodec.encodeBinary(message);
+    }
+
+    @Benchmark
+    public Message decodeBinary() {
+        return MessageCodec.decodeBinary(binary.duplicate());
+    }
+}
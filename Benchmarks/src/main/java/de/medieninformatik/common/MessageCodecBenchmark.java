@@ -0,0 +1,59 @@
+package de.medieninformatik.common;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Vergleicht den {@link MessageCodec} mit der früheren Umsetzung
+ * über reguläre Ausdrücke und {@link String#formatted(Object...)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCodecBenchmark {
+    private static final Pattern MATCHER
+            = Pattern.compile("^\\{\"action\":\"[^\"]+\",\"user\":\"[^\"]+\",\"message\":\"[^\"]+\"}$");
+    private static final Pattern SPLITTER
+            = Pattern.compile("(^\\{\"action\":\")|(\",\"(user|message)\":\")|(\"}$)");
+
+    @Param({"16", "256"})
+    public int contentLength;
+
+    private Message message;
+    private String text;
+
+    @Setup
+    public void setup() {
+        message = new Message(Message.Action.SEND, "benchmark", "x".repeat(contentLength));
+        text = MessageCodec.encode(message);
+    }
+
+    @Benchmark
+    public Message decodeRegex() {
+        if (MATCHER.matcher(text).matches()) {
+            String[] msgParts = SPLITTER.split(text);
+            return new Message(Message.Action.getFromString(msgParts[1]), msgParts[2], msgParts[3]);
+        } else throw new IllegalArgumentException();
+    }
+
+    @Benchmark
+    public Message decodeCodec() {
+        return MessageCodec.decode(text);
+    }
+
+    @Benchmark
+    public String encodeFormatted() {
+        return "{\"action\":\"%s\",\"user\":\"%s\",\"message\":\"%s\"}"
+                .formatted(message.action(), message.user(), message.content());
+    }
+
+    @Benchmark
+    public String encodeCodec() {
+        return MessageCodec.encode(message);
+    }
+}
@@ -0,0 +1,193 @@
+package de.medieninformatik.server;
+
+import jakarta.websocket.RemoteEndpoint;
+import jakarta.websocket.SendHandler;
+import jakarta.websocket.SendResult;
+import jakarta.websocket.Session;
+
+import java.io.OutputStream;
+import java.io.Writer;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+/**
+ * Nachgebildete {@link Session} für Benchmarks ohne Netzwerk.
+ * Die Endpunkte ahmen die Arbeit des Containers nach: Texte werden
+ * wie bei Tomcat pro Sendevorgang in einen wiederverwendeten Puffer kodiert,
+ * Binärdaten in diesen kopiert. Sendevorgänge sind sofort abgeschlossen.
+ */
+final class FakeSession {
+    private static final SendResult OK = new SendResult();
+
+    /**
+     * Privater Konstruktor; da eine Instanziierung nicht vonnöten ist
+     */
+    private FakeSession() {
+    }
+
+    /**
+     * Erzeugt eine neue nachgebildete Session
+     *
+     * @param id ID der Session
+     * @return die Session
+     */
+    static Session create(String id) {
+        AsyncRemote async = new AsyncRemote();
+        BasicRemote basic = new BasicRemote();
+        Map<String, Object> userProperties = new HashMap<>();
+        return (Session) Proxy.newProxyInstance(
+                Session.class.getClassLoader(),
+                new Class<?>[]{Session.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getId" -> id;
+                    case "isOpen" -> true;
+                    case "getAsyncRemote" -> async;
+                    case "getBasicRemote" -> basic;
+                    case "getUserProperties" -> userProperties;
+                    case "getPathParameters", "getRequestParameterMap" -> Collections.emptyMap();
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "FakeSession[" + id + "]";
+                    default -> null;
+                });
+    }
+
+    /**
+     * Gemeinsamer Teil der nachgebildeten Endpunkte; verwirft alle Nachrichten
+     */
+    private abstract static class Remote implements RemoteEndpoint {
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        private final ByteBuffer wire = ByteBuffer.allocate(64 * 1024);
+        private long bytes;
+
+        void write(String text) {
+            encoder.reset();
+            wire.clear();
+            encoder.encode(CharBuffer.wrap(text), wire, true);
+            bytes += wire.position();
+        }
+
+        void write(ByteBuffer data) {
+            wire.clear();
+            bytes += data.remaining();
+            wire.put(data);
+        }
+
+        @Override
+        public boolean getBatchingAllowed() {
+            return false;
+        }
+
+        @Override
+        public void setBatchingAllowed(boolean batchingAllowed) {
+        }
+
+        @Override
+        public void flushBatch() {
+        }
+
+        @Override
+        public void sendPing(ByteBuffer applicationData) {
+        }
+
+        @Override
+        public void sendPong(ByteBuffer applicationData) {
+        }
+    }
+
+    /**
+     * Nachgebildeter asynchroner Endpunkt; Sendevorgänge sind sofort abgeschlossen
+     */
+    private static final class AsyncRemote extends Remote implements RemoteEndpoint.Async {
+        @Override
+        public long getSendTimeout() {
+            return 0;
+        }
+
+        @Override
+        public void setSendTimeout(long timeout) {
+        }
+
+        @Override
+        public void sendText(String text, SendHandler handler) {
+            write(text);
+            handler.onResult(OK);
+        }
+
+        @Override
+        public Future<Void> sendText(String text) {
+            write(text);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void sendBinary(ByteBuffer data, SendHandler handler) {
+            write(data);
+            handler.onResult(OK);
+        }
+
+        @Override
+        public Future<Void> sendBinary(ByteBuffer data) {
+            write(data);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void sendObject(Object data, SendHandler handler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Future<Void> sendObject(Object data) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Nachgebildeter blockierender Endpunkt
+     */
+    private static final class BasicRemote extends Remote implements RemoteEndpoint.Basic {
+        @Override
+        public void sendText(String text) {
+            write(text);
+        }
+
+        @Override
+        public void sendBinary(ByteBuffer data) {
+            write(data);
+        }
+
+        @Override
+        public void sendText(String partialMessage, boolean isLast) {
+            write(partialMessage);
+        }
+
+        @Override
+        public void sendBinary(ByteBuffer partialByte, boolean isLast) {
+            write(partialByte);
+        }
+
+        @Override
+        public OutputStream getSendStream() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Writer getSendWriter() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void sendObject(Object data) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
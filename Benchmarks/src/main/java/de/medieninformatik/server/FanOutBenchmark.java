@@ -0,0 +1,92 @@
+package de.medieninformatik.server;
+
+import de.medieninformatik.common.Message;
+import de.medieninformatik.common.MessageCodec;
+import jakarta.websocket.Session;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Vergleicht die Kosten eines Broadcasts an viele Sessions:
+ * Kodierung pro Empfänger gegenüber einem gemeinsam genutzten {@link Frame},
+ * sowie den vollständigen Weg über {@link Chat#onMessage(Session, String)}.
+ * Der Verlauf ist abgeschaltet, siehe dazu {@link MessageLogBenchmark}, ebenso die Begrenzung durch
+ * {@link Throttle}, da sonst fast alle Frames der sendenden Session abgelehnt statt verteilt würden.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Dchat.log.dir=", "-Dchat.rate.perSecond=0"})
+public class FanOutBenchmark {
+    @Param({"1000", "10000"})
+    public int sessions;
+
+    @Param({"64", "4096"})
+    public int payloadSize;
+
+    private Session[] connected;
+    private Message message;
+    private String msg;
+    private Chat chat;
+    private PrintStream out;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // Konsolenausgabe des Chats würde den Fan-out überdecken
+        out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        message = new Message(Message.Action.SEND, "bench", "x".repeat(payloadSize));
+        msg = message.toString();
+        chat = new Chat();
+        connected = new Session[sessions];
+        for (int i = 0; i < sessions; i++) {
+            connected[i] = FakeSession.create(Integer.toString(i));
+            chat.onOpen(connected[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (Session session : connected) chat.onClose(session);
+        System.setOut(out);
+    }
+
+    /**
+     * Bisheriger Weg: der Container kodiert den Text für jeden Empfänger neu
+     */
+    @Benchmark
+    public void basicRemotePerRecipient() throws IOException {
+        for (Session session : connected) session.getBasicRemote().sendText(msg);
+    }
+
+    /**
+     * Kodierung in einen eigenen Puffer pro Empfänger
+     */
+    @Benchmark
+    public void encodePerRecipient() {
+        for (Session session : connected) session.getAsyncRemote().sendBinary(MessageCodec.encodeBinary(message));
+    }
+
+    /**
+     * Einmal kodierter Frame, von dem jeder Empfänger nur eine Sicht erhält
+     */
+    @Benchmark
+    public void sharedFrame() {
+        Frame frame = new Frame(message);
+        for (Session session : connected) session.getAsyncRemote().sendBinary(frame.binary());
+    }
+
+    /**
+     * Vollständiger Broadcast über die Outboxen des Chats
+     */
+    @Benchmark
+    public void chatOnMessage() {
+        chat.onMessage(connected[0], msg);
+    }
+}
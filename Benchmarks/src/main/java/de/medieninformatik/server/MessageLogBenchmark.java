@@ -0,0 +1,73 @@
+package de.medieninformatik.server;
+
+import de.medieninformatik.common.Message;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Misst das Anhängen an das {@link MessageLog} je {@link MessageLog.Sync}-Strategie
+ * sowie das Nachholen der letzten Messages für einen neuen Client.
+ * Zum Vergleich dient das Kodieren eines {@link Frame}s, welches auch ohne Log anfällt.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageLogBenchmark {
+    @Param({"NONE", "ALWAYS"})
+    public String sync; // MessageLog.Sync ist nicht öffentlich
+
+    @Param({"64", "4096"})
+    public int payloadSize;
+
+    private Path dir;
+    private MessageLog log;
+    private Message message;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("chat-log");
+        log = new MessageLog(dir, 64 << 20, 256L << 20, 0, MessageLog.Sync.valueOf(sync));
+        message = new Message(Message.Action.SEND, "bench", "x".repeat(payloadSize));
+        for (int i = 0; i < 1000; i++) log.append(new Frame(message));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) Files.delete(file);
+        }
+    }
+
+    /**
+     * Nur das Kodieren, wie es auch beim Broadcast ohne Log geschieht
+     */
+    @Benchmark
+    public Object encodeOnly() {
+        return new Frame(message).binary();
+    }
+
+    /**
+     * Kodieren und Anhängen an das Log
+     */
+    @Benchmark
+    public void append() {
+        log.append(new Frame(message));
+    }
+
+    /**
+     * Die letzten 50 Messages als Frames bis zur maximalen Länge für einen neuen Client
+     */
+    @Benchmark
+    public Object replay50() {
+        return Frame.batches(log.replay(50), true).stream().map(Frame::binary).toList();
+    }
+}
@@ -0,0 +1,79 @@
+package de.medieninformatik.server;
+
+import de.medieninformatik.common.Message;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Misst Suchanfragen an einen {@link SearchIndex} mit einer Million Messages
+ * aus einem Wortschatz, in dem wenige Wörter sehr häufig und viele selten sind.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class SearchIndexBenchmark {
+    private static final int MESSAGES = 1_000_000;
+    private static final int WORDS = 10_000;
+    private static final int USERS = 1_000;
+
+    private SearchIndex index;
+    private Message message;
+    private int added;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        index = new SearchIndex(MESSAGES);
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < MESSAGES; i++) {
+            sb.setLength(0);
+            for (int w = 0; w < 8; w++) sb.append("w").append(zipf(random)).append(' ');
+            String user = "user" + random.nextInt(USERS);
+            index.add("room" + (i % 10), new Frame(new Message(Message.Action.SEND, user, sb.toString())));
+        }
+        message = new Message(Message.Action.SEND, "bench", "w0 w1 w17 w4711 ein kurzer Satz");
+    }
+
+    // Wort i mit einer Wahrscheinlichkeit von etwa 1/i
+    private static int zipf(Random random) {
+        return (int) Math.pow(WORDS, random.nextDouble()) - 1;
+    }
+
+    /**
+     * Einfügen einer Message samt Wörtern
+     */
+    @Benchmark
+    public void add() {
+        index.add("room" + (added++ % 10), new Frame(message));
+    }
+
+    /**
+     * Ein sehr häufiges Wort; bricht nach 50 Treffern ab
+     */
+    @Benchmark
+    public List<SearchIndex.Hit> commonTerm() {
+        return index.search(new SearchIndex.Query("w0", null, null, 0, Long.MAX_VALUE, 50));
+    }
+
+    /**
+     * Zwei seltene Wörter, deren Schnitt kaum Treffer hat
+     */
+    @Benchmark
+    public List<SearchIndex.Hit> rareTerms() {
+        return index.search(new SearchIndex.Query("w4711 w9000", null, null, 0, Long.MAX_VALUE, 50));
+    }
+
+    /**
+     * Häufige Wörter von einem bestimmten User in einem Raum
+     */
+    @Benchmark
+    public List<SearchIndex.Hit> termsUserRoom() {
+        return index.search(new SearchIndex.Query("w1 w2", "user7", "room7", 0, Long.MAX_VALUE, 50));
+    }
+}
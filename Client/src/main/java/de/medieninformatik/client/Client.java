@@ -1,8 +1,12 @@
 package de.medieninformatik.client;
 
 import de.medieninformatik.common.Message;
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.collections.transformation.SortedList;
 import javafx.concurrent.Service;
 import javafx.concurrent.Task;
 import javafx.concurrent.WorkerStateEvent;
@@ -14,11 +18,15 @@ import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
 
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -67,30 +75,42 @@ public class Client extends Application {
     private static final int HEIGHT = 500;
     private static final int WIDTH = 800;
     private static final int FONT_SIZE = 14;
+    private static final int ROSTER_WIDTH = 180;
+    private static final int MAX_BATCH = 64; // maximale Anzahl Nachrichten pro Aufruf; die Länge der Frames begrenzt ClientEndpoint
     private static final String FONT = " -fx-font: " + FONT_SIZE + "pt \"Arial\";";
     private static final String BG_GRAY = " -fx-background-color: lightgray;";
     private static final String BG_RED = " -fx-background-color: red;";
     private String host;
     private int port;
+    private String room;
     private Stage stage;
     private Button loginButton;
     private TextField eingabeZeile;
-    private TextArea verlauf;
+    private ListView<Message> verlauf;
+    private History history;
+    private ObservableList<String> anwesend; // nur im JavaFX-Thread; vom Server gemeldete User im Raum
     private String user;
     private AtomicBoolean isLoggedIn; // in JavaFX-Thread und in Task
-    private Semaphore semaphore; // verhindert cleanup-run bevor letzte msg gesendet
-    private Service<Void> service;
+    private boolean sendDone; // nur im JavaFX-Thread; verhindert cleanup-run bevor letzte msg gesendet
+    private boolean receiveDone; // nur im JavaFX-Thread; verhindert cleanup-run bevor logout vom Server kam
+    private ChatRenderer renderer;
     private Service<Void> sendService;
     private BlockingQueue<Message> messages;
-    private SynchronousQueue<Message> incomingMessage;
+    private Inbox incoming;
     private ClientEndpoint clientEndpoint;
 
     /**
      * Bereitet JavaFX vor (ohne GUI-Elemente).
      * Auf der Kommandozeile des Clients kann
-     * der Host und der Port mit
-     * java client --host=localhost --port=8080
-     * übergeben werden.
+     * der Host, der Port und der Chat-Raum mit
+     * java client --host=localhost --port=8080 --room=lobby
+     * übergeben werden. Ohne Raum landet der Client im Standard-Raum des Servers.
+     * Mit --inbox=4096 wird die Anzahl der Nachrichten festgelegt, welche zwischen
+     * zwei Aktualisierungen der Oberfläche gepuffert werden können,
+     * mit --history=10000 die Anzahl der Nachrichten, die der Verlauf höchstens anzeigt,
+     * mit --heartbeat=15000 der Abstand in Millisekunden, in dem geprüft wird, ob der Server noch antwortet,
+     * und mit --downloads=Verzeichnis, wohin empfangene Anhänge mit <code>/speichern id</code> gespeichert werden
+     * (Standard: ~/Downloads).
      */
     @Override
     public void init() {
@@ -98,11 +118,16 @@ public class Client extends Application {
         Map<String, String> map = p.getNamed();
         host = map.getOrDefault("host", "localhost");
         port = Integer.parseInt(map.getOrDefault("port", "8080"));
+        room = map.getOrDefault("room", "");
         isLoggedIn = new AtomicBoolean(false);
-        semaphore = new Semaphore(1);
         messages = new LinkedBlockingQueue<>();
-        incomingMessage = new SynchronousQueue<>();
-        clientEndpoint = new ClientEndpoint(incomingMessage, () -> isLoggedIn.set(false));
+        incoming = new Inbox(Integer.parseInt(map.getOrDefault("inbox", "4096")));
+        history = new History(Integer.parseInt(map.getOrDefault("history", "10000")));
+        anwesend = FXCollections.observableArrayList();
+        clientEndpoint = new ClientEndpoint(incoming, () -> isLoggedIn.set(false),
+                Long.parseLong(map.getOrDefault("heartbeat", "15000")),
+                Path.of(map.getOrDefault("downloads", Path.of(System.getProperty("user.home"), "Downloads").toString())),
+                this::zeigeHinweis);
     }
 
     /**
@@ -118,26 +143,32 @@ public class Client extends Application {
         // Wenn return gedrückt, dann rufe Eventhandler sendenachricht auf
         eingabeZeile.setOnAction(this::sendeNachricht);
 
-        verlauf = new TextArea();
-        verlauf.setWrapText(true);
+        // ListView erzeugt nur Zellen für die sichtbaren Zeilen und verwendet diese wieder
+        verlauf = new ListView<>(history);
+        verlauf.setCellFactory(list -> new MessageCell());
         verlauf.setStyle(FONT);
-        verlauf.setEditable(false);
+        verlauf.setFocusTraversable(false);
         verlauf.setPrefHeight(HEIGHT - 6d * FONT_SIZE);
-        verlauf.setPrefWidth(WIDTH - 20d);
+        verlauf.setPrefWidth(WIDTH - 20d - ROSTER_WIDTH);
+
+        final ListView<String> anwesendListe = new ListView<>(new SortedList<>(anwesend, String.CASE_INSENSITIVE_ORDER));
+        anwesendListe.setStyle(FONT);
+        anwesendListe.setFocusTraversable(false);
+        anwesendListe.setPrefHeight(verlauf.getPrefHeight());
+        anwesendListe.setPrefWidth(ROSTER_WIDTH);
 
         loginButton = new Button("Anmelden");
         loginButton.setStyle(FONT + BG_GRAY);
         loginButton.setOnAction(this::handleButton);
 
         final VBox vbox = new VBox();
-        final ScrollPane pane = new ScrollPane(verlauf);
         final Button sendButton = new Button("Senden");
         final HBox hbox = new HBox(loginButton, sendButton);
         sendButton.setStyle(FONT + BG_GRAY);
         sendButton.setOnAction(this::sendeNachricht);
         hbox.setPadding(new Insets(15));
         hbox.setSpacing(15);
-        vbox.getChildren().addAll(pane, eingabeZeile, hbox);
+        vbox.getChildren().addAll(new HBox(verlauf, anwesendListe), eingabeZeile, hbox);
         stage.setScene(new Scene(vbox, WIDTH, HEIGHT));
         stage.setTitle("ChatClient");
         stage.setResizable(false);
@@ -171,7 +202,10 @@ public class Client extends Application {
      */
     private void login() {
         try {
-            clientEndpoint.connect("ws://%s:%d/Chat/chat".formatted(host, port));
+            String path = room.isBlank()
+                    ? "/Chat/chat"
+                    : "/Chat/chat/" + URLEncoder.encode(room, StandardCharsets.UTF_8).replace("+", "%20");
+            clientEndpoint.connect("ws://%s:%d%s".formatted(host, port, path));
 
             sendService = new Service<>() {
                 @Override
@@ -179,17 +213,14 @@ public class Client extends Application {
                     return new SendTask();
                 }
             };
-            service = new Service<>() {
-                @Override
-                protected Task<Void> createTask() {
-                    return new ChatTask();
-                }
-            };
-            // cleanup wartet auf freie semaphoren von ChatTask
+            renderer = new ChatRenderer();
+            // cleanup wartet zusätzlich auf das Ende des ChatRenderers
             sendService.setOnSucceeded(this::cleanup);
             sendService.setOnFailed(this::cleanup);
-            isLoggedIn.set(true); // muss vor service.start stehen
-            service.start();
+            sendDone = false;
+            receiveDone = false;
+            isLoggedIn.set(true); // muss vor renderer.start stehen
+            renderer.start();
             sendService.start();
 
             loginButton.setText("Abmelden");
@@ -215,26 +246,32 @@ public class Client extends Application {
     }
 
     /**
-     * Bereinigt die Nachrichten des Clients
+     * Wird aufgerufen, sobald die SendTask beendet ist
      *
      * @param e ignoriert
      */
     private void cleanup(WorkerStateEvent e) {
-        try {
-            semaphore.acquire(); // warte bis ChatTask logout von Server hat
-        } catch (InterruptedException interrupted) {
-            Thread.currentThread().interrupt();
-            interrupted.printStackTrace(System.err);
-        }
+        sendDone = true;
+        cleanupIfDone();
+    }
+
+    /**
+     * Bereinigt die Nachrichten des Clients, sobald sowohl die letzte Nachricht
+     * gesendet als auch der logout vom Server empfangen wurde;
+     * läuft immer im JavaFX-Thread
+     */
+    private void cleanupIfDone() {
+        if (!sendDone || !receiveDone) return;
         clientEndpoint.disconnect();
         messages.clear();
+        incoming.clear();
+        anwesend.clear();
         sendService = null;
-        service = null;
+        renderer = null;
         user = null;
         eingabeZeile.setText("");
         eingabeZeile.requestFocus();
         stage.setTitle("ChatClient");
-        semaphore.release();
     }
 
     /**
@@ -261,13 +298,88 @@ public class Client extends Application {
                     "Eingegebene Nachricht darf nicht leer sein!",
                     ButtonType.OK
             ).show();
+        } else if (input.startsWith("/datei ")) {
+            sendeDatei(Path.of(input.substring(7).strip()));
+        } else if (input.startsWith("/speichern ")) {
+            speichereAnhang(input.substring(11).strip());
         } else {
-            offerMessage(new Message(Message.Action.SEND, user, input));
+            offerMessage(toMessage(input));
             eingabeZeile.setText("");
             eingabeZeile.requestFocus();
         }
     }
 
+    /**
+     * Sendet eine Datei als Anhang an den Raum, eingegeben als <code>/datei pfad</code>;
+     * das Ergebnis erscheint, sobald der Anhang gesendet ist, als Hinweis im Verlauf.
+     * Währenddessen können weiter Nachrichten gesendet werden.
+     *
+     * @param datei zu sendende Datei
+     */
+    private void sendeDatei(Path datei) {
+        if (!Files.isRegularFile(datei) || !Files.isReadable(datei)) {
+            new Alert(
+                    Alert.AlertType.ERROR,
+                    "Datei nicht gefunden: " + datei,
+                    ButtonType.OK
+            ).show();
+            return;
+        }
+        clientEndpoint.sendFile(datei).thenAccept(this::zeigeHinweis);
+        eingabeZeile.setText("");
+        eingabeZeile.requestFocus();
+    }
+
+    /**
+     * Speichert einen empfangenen Anhang, eingegeben als <code>/speichern id</code> mit der ID
+     * aus dem Hinweis zu seinem Empfang; das Ergebnis erscheint als Hinweis im Verlauf.
+     *
+     * @param id ID des Anhangs
+     */
+    private void speichereAnhang(String id) {
+        long attachment;
+        try {
+            attachment = Long.parseLong(id);
+        } catch (NumberFormatException e) {
+            new Alert(
+                    Alert.AlertType.ERROR,
+                    "Ungültige ID: " + id,
+                    ButtonType.OK
+            ).show();
+            return;
+        }
+        clientEndpoint.saveFile(attachment).thenAccept(this::zeigeHinweis);
+        eingabeZeile.setText("");
+        eingabeZeile.requestFocus();
+    }
+
+    /**
+     * Zeigt einen Hinweis im Verlauf an; darf aus jedem Thread aufgerufen werden
+     *
+     * @param text Hinweis
+     */
+    private void zeigeHinweis(String text) {
+        Platform.runLater(() -> {
+            history.append(List.of(new Message(Message.Action.NOTICE, "", text)));
+            verlauf.scrollTo(history.size() - 1);
+        });
+    }
+
+    /**
+     * Erzeugt aus einer Eingabe die zu sendende Message;
+     * <code>/msg name text</code> ergibt eine Direktnachricht an den User <code>name</code>
+     *
+     * @param input nicht leere Eingabe
+     * @return die Message
+     */
+    private Message toMessage(String input) {
+        if (input.startsWith("/msg ")) {
+            String[] parts = input.substring(5).strip().split("\\s+", 2);
+            if (parts.length == 2) return new Message(Message.Action.DIRECT, user, parts[1], parts[0]);
+        }
+        return new Message(Message.Action.SEND, user, input);
+    }
+
     /**
      * Gibt eine Error-Message aus,
      * wenn die Nachricht nicht gesendet werden kann
@@ -279,47 +391,133 @@ public class Client extends Application {
     }
 
     /**
-     * Die vom Service ausgeführte Task.
-     * Sie nimmt vom Server Nachrichten entgegen,
-     * gibt diese aus und reagiert gegebenenfalls.
+     * Formatiert eine Nachricht für die Anzeige im Verlauf
+     *
+     * @param msg anzuzeigende Nachricht
+     * @return die Zeile für den Verlauf
+     */
+    private static String format(Message msg) {
+        return switch (msg.action()) {
+            case JOIN -> ">>> " + msg.user() + " ist angemeldet";
+            case SEND -> msg.user() + ": " + msg.content();
+            case LEAVE -> "<<< " + msg.user() + " ist abgemeldet";
+            case NOTICE -> "*** " + msg.content();
+            case ROSTER -> "*** Anwesend: " + String.join(", ", msg.content().lines().toList());
+            case PRESENCE -> formatPresence(msg.content());
+            case DIRECT -> "[privat] " + msg.user() + " → " + msg.recipient() + ": " + msg.content();
+            case SEQ, ACK -> msg.content(); // werden bereits vom ClientEndpoint ausgewertet
+        };
+    }
+
+    /**
+     * @param delta Änderungen der Anwesenden als Zeilen "+name" bzw. "-name"
+     * @return eine Zeile für alle An- und Abmeldungen
+     */
+    private static String formatPresence(String delta) {
+        List<String> joined = new ArrayList<>();
+        List<String> left = new ArrayList<>();
+        delta.lines().filter(line -> !line.isEmpty())
+                .forEach(line -> (line.charAt(0) == '+' ? joined : left).add(line.substring(1)));
+        StringBuilder text = new StringBuilder();
+        if (!joined.isEmpty()) text.append(">>> ").append(String.join(", ", joined)).append(" angemeldet");
+        if (!joined.isEmpty() && !left.isEmpty()) text.append("   ");
+        if (!left.isEmpty()) text.append("<<< ").append(String.join(", ", left)).append(" abgemeldet");
+        return text.toString();
+    }
+
+    /**
+     * Zelle des Verlaufs; wird beim Scrollen für andere Nachrichten wiederverwendet
+     */
+    private static class MessageCell extends ListCell<Message> {
+        MessageCell() {
+            setWrapText(true);
+            setPrefWidth(0); // Zeilenumbruch an der Breite der Liste statt horizontalem Scrollen
+        }
+
+        @Override
+        protected void updateItem(Message item, boolean empty) {
+            super.updateItem(item, empty);
+            setText(empty || item == null ? null : format(item));
+        }
+    }
+
+    /**
+     * Läuft einmal pro Bild-Puls im JavaFX-Thread.
+     * Er übernimmt alle seit dem letzten Puls vom Server eingegangenen Nachrichten
+     * aus der {@link Inbox} und hängt sie in einem Durchgang an den {@link History Verlauf} an.
+     * <p>
+     * Die Anwesenden im Raum werden aus ROSTER- und PRESENCE-Nachrichten übernommen.
      * <p>
-     * Falls eine LEAVE-Nachricht des Nutzers eintrifft,
-     * wird die Tasks und damit der Service beendet.
+     * Falls eine LEAVE-Nachricht des Nutzers eintrifft oder die Verbindung
+     * getrennt wurde, wird der Timer beendet.
      */
-    private class ChatTask extends Task<Void> {
+    private class ChatRenderer extends AnimationTimer {
+        private final List<Message> ausgabe = new ArrayList<>();
+
         @Override
-        protected Void call() throws Exception {
-            semaphore.acquire(); // Verhindert zu frühen cleanup
-            while (isLoggedIn.get()) {
-                Message msg = incomingMessage.take();
-                Message.Action action = msg.action();
-                final String ausgabe = switch (action) {
-                    case JOIN -> String.format(">>> %s ist angemeldet%n", msg.user());
-                    case SEND -> String.format("%s: %s%n", msg.user(), msg.content());
-                    case LEAVE -> String.format("<<< %s ist abgemeldet%n", msg.user());
-                };
-                Platform.runLater(() -> verlauf.appendText(ausgabe));
-                if (action == Message.Action.LEAVE && user.equals(msg.user())) isLoggedIn.set(false);
+        public void handle(long now) {
+            incoming.drainTo(this::append);
+            long dropped = incoming.takeDropped();
+            if (dropped > 0) ausgabe.add(new Message(Message.Action.NOTICE, "", "%d Nachrichten verworfen".formatted(dropped)));
+            if (!ausgabe.isEmpty()) {
+                history.append(ausgabe);
+                ausgabe.clear();
+                verlauf.scrollTo(history.size() - 1);
             }
-            semaphore.release();
-            return null;
+            if (!isLoggedIn.get()) {
+                stop();
+                receiveDone = true;
+                cleanupIfDone();
+            }
+        }
+
+        private void append(Message msg) {
+            switch (msg.action()) {
+                case ROSTER -> {
+                    anwesend.setAll(msg.content().lines().filter(line -> !line.isEmpty()).toList());
+                    return; // kein Eintrag im Verlauf
+                }
+                case PRESENCE -> msg.content().lines().filter(line -> !line.isEmpty()).forEach(line -> {
+                    String name = line.substring(1);
+                    if (line.charAt(0) == '-') anwesend.remove(name);
+                    else if (!anwesend.contains(name)) anwesend.add(name);
+                });
+                default -> {
+                }
+            }
+            ausgabe.add(msg);
+            if (msg.action() == Message.Action.LEAVE && msg.user().equals(user)) isLoggedIn.set(false);
         }
     }
 
     /**
      * Wartet auf Nachricht in Warteschlange.
-     * Diese Nachricht wird dann an den Server gesendet.
-     * LEAVE-Nachricht oder isLoggedIn == false beendet die Task
+     * Diese Nachricht wird, zusammen mit allen weiteren bereits wartenden
+     * Nachrichten, gebündelt in einem Frame an den Server gesendet.
+     * LEAVE-Nachricht oder isLoggedIn == false beendet die Task;
+     * Nachrichten nach einem LEAVE werden nicht mehr gesendet.
      */
     private class SendTask extends Task<Void> {
         @Override
         protected Void call() throws Exception {
+            List<Message> batch = new ArrayList<>();
             while (isLoggedIn.get()) {
-                Message msg = messages.take(); // Blockiert
-                clientEndpoint.sendMessage(msg);
-                if (msg.action() == Message.Action.LEAVE) break;
+                batch.add(messages.take()); // Blockiert
+                messages.drainTo(batch, MAX_BATCH - 1);
+                int leave = indexOfLeave(batch);
+                if (leave >= 0) batch.subList(leave + 1, batch.size()).clear();
+                clientEndpoint.sendMessages(batch);
+                if (leave >= 0) break;
+                batch.clear();
             }
             return null;
         }
+
+        private int indexOfLeave(List<Message> batch) {
+            for (int i = 0; i < batch.size(); i++) {
+                if (batch.get(i).action() == Message.Action.LEAVE) return i;
+            }
+            return -1;
+        }
     }
 }
@@ -1,33 +1,106 @@
 package de.medieninformatik.client;
 
+import de.medieninformatik.common.Chunk;
 import de.medieninformatik.common.Message;
+import de.medieninformatik.common.MessageCodec;
 import jakarta.websocket.*;
 
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.Queue;
-import java.util.concurrent.SynchronousQueue;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
-@jakarta.websocket.ClientEndpoint
+/**
+ * WebSocket-Endpunkt des Clients.
+ * Beim Verbindungsaufbau wird das Binärformat {@link MessageCodec#BINARY_SUBPROTOCOL}
+ * angeboten; unterstützt der Server dieses nicht, wird weiterhin das Textformat genutzt.
+ * <p>
+ * Bricht die Verbindung eines angemeldeten Users ab, ohne dass {@link #disconnect()} aufgerufen wurde,
+ * wird bis zu {@value #RECONNECT_ATTEMPTS}-mal mit wachsendem Abstand neu verbunden. Dabei wird die
+ * zuletzt vom Server erhaltene Sequenznummer ({@link Message.Action#SEQ}) angegeben, sodass der Server
+ * nur die verpassten Nachrichten nachsendet; danach werden das JOIN und alle zwischenzeitlich
+ * eingegebenen Nachrichten gesendet. Erst wenn alle Versuche scheitern, gilt der Client als getrennt.
+ * <p>
+ * SEND- und DIRECT-Nachrichten erhalten eine zufällige ID, welche der Server mit einem
+ * {@link Message.Action#ACK} bestätigt. Nach dem Wiederverbinden werden alle noch unbestätigten
+ * Nachrichten der letzten {@value #RETRY_MILLIS} ms erneut gesendet; hatte der Server sie doch
+ * schon erhalten, erkennt er sie an der ID und sendet sie nicht ein zweites Mal an den Raum.
+ * <p>
+ * Pings des Servers beantwortet der WebSocket-Container selbst. Umgekehrt pingt der Client den Server,
+ * wenn er ein Heartbeat-Intervall lang nichts von ihm empfangen hat, und schließt die Verbindung
+ * (und verbindet damit neu), wenn drei Intervalle lang weder Nachricht noch Pong kamen;
+ * so wird auch eine Verbindung erkannt, die ohne Abbruch stumm geworden ist.
+ * <p>
+ * Anhänge werden in einem eigenen Thread als Folge von {@link Chunk}s gesendet, jeder eine eigene
+ * binäre Nachricht von höchstens {@link MessageCodec#MAX_CHUNK} Bytes aus Kopf und Daten als zwei Fragmenten,
+ * sodass die Daten ohne Kopie direkt aus dem Lesepuffer gesendet werden. Zwischen zwei Teilen wird
+ * die Verbindung freigegeben, damit gewöhnliche Nachrichten nicht auf das Ende des Anhangs warten.
+ * Empfangene Anhänge nimmt {@link Downloads} entgegen und speichert sie erst auf Wunsch des Users;
+ * bricht die Verbindung ab, werden alle laufenden Anhänge in beide Richtungen abgebrochen.
+ */
+@jakarta.websocket.ClientEndpoint(subprotocols = MessageCodec.BINARY_SUBPROTOCOL)
 public class ClientEndpoint {
-    private final SynchronousQueue<Message> incomingMessage;
+    private static final int RECONNECT_ATTEMPTS = 5;
+    private static final long RECONNECT_DELAY_MILLIS = 500; // verdoppelt sich mit jedem Versuch
+    private static final long RETRY_MILLIS = 30_000; // kürzer als die Wiederholungserkennung des Servers
+    private static final int MAX_UNACKED = 256;
+    private static final int SILENT_INTERVALS = 3;
+    private static final int MAX_NAME = 255; // Zeichen eines Dateinamens, damit der erste Teil in eine Nachricht passt
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final long heartbeatMillis;
+    private final Inbox incoming;
     private final Runnable onCloseAction;
+    private final Downloads downloads;
+    private final Set<Long> uploads = ConcurrentHashMap.newKeySet(); // IDs der laufenden Anhänge
     private final WebSocketContainer container = ContainerProvider.getWebSocketContainer();
-    private Session userSession;
+    private volatile Session userSession;
+    private volatile boolean binary;
+    private String uri;
+    private volatile long lastSeq = -1; // zuletzt erhaltene Sequenznummer; -1, solange keine bekannt ist
+    private volatile boolean closing; // disconnect() wurde aufgerufen
+    private Message joined; // guarded by this; zuletzt gesendetes JOIN, null nach einem LEAVE
+    private boolean reconnecting; // guarded by this
+    private final List<Message> unsent = new ArrayList<>(); // guarded by this; nicht gesendete Nachrichten ohne ID
+    // ID -> unbestätigte Nachricht; ACKs entfernen ohne Sperre, da sendMessages sie beim Senden hält
+    private final Map<Long, Pending> unacked = new ConcurrentHashMap<>();
+    private long order; // guarded by this; Reihenfolge der unbestätigten Nachrichten
+    private volatile long lastReceived; // System.nanoTime() der letzten Nachricht oder des letzten Pongs
+    private ScheduledFuture<?> watchdog; // guarded by this
 
     /**
-     * Fügt die einkommende Message einer {@link SynchronousQueue} hinzu.
-     * Diese ist nötig um eine Thread-Sicherheit zu gewährleisten.
+     * Fügt die einkommende Message einer {@link Inbox} hinzu.
+     * Diese entkoppelt den WebSocket-Thread vom JavaFX-Thread, ohne je zu blockieren.
      *
-     * @param incomingMessage {@link Message}, die der Queue hinzugefügt werden soll
+     * @param incoming      {@link Inbox}, der die eingehenden Messages hinzugefügt werden
      * @param onCloseAction   Ein {@link Runnable}, welches ausgeführt wird, wenn der Client geschlossen wird
+     * @param heartbeatMillis Abstand, in dem der Server geprüft wird; 0, um dies abzuschalten
+     * @param downloads       Verzeichnis, in welches empfangene Anhänge gespeichert werden
+     * @param notices         erhält die Hinweise zu empfangenen Anhängen, in einem eigenen Thread
      */
-    public ClientEndpoint(Queue<Message> incomingMessage, Runnable onCloseAction) {
-        if (incomingMessage instanceof SynchronousQueue<Message> synchronousQueue)
-            this.incomingMessage = synchronousQueue;
-        else throw new IllegalArgumentException("queue must be of type SynchronousQueue");
+    ClientEndpoint(Inbox incoming, Runnable onCloseAction, long heartbeatMillis, Path downloads, Consumer<String> notices) {
+        this.incoming = incoming;
         this.onCloseAction = onCloseAction;
+        this.heartbeatMillis = heartbeatMillis;
+        this.downloads = new Downloads(downloads, notices);
     }
 
     /**
@@ -36,17 +109,46 @@ public class ClientEndpoint {
      * @param uri Server URL
      */
     void connect(String uri) {
+        this.uri = uri;
+        closing = false;
+        lastSeq = -1;
+        synchronized (this) {
+            joined = null;
+            reconnecting = false;
+            unsent.clear();
+            unacked.clear();
+            if (watchdog == null && heartbeatMillis > 0) {
+                watchdog = WATCHDOG.scheduleWithFixedDelay(this::checkServer, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+            }
+        }
         try {
-            userSession = container.connectToServer(this, new URI(uri));
+            open(resume(uri, -1));
         } catch (DeploymentException | IOException | URISyntaxException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * @return die URL samt zuletzt erhaltener Sequenznummer; -1 meldet eine neue Session an,
+     * welche Sequenznummern erhalten möchte
+     */
+    private static String resume(String uri, long after) {
+        return uri + (uri.contains("?") ? '&' : '?') + "after=" + after;
+    }
+
+    private void open(String uri) throws DeploymentException, IOException, URISyntaxException {
+        Session session = container.connectToServer(this, new URI(uri));
+        binary = MessageCodec.BINARY_SUBPROTOCOL.equals(session.getNegotiatedSubprotocol());
+        userSession = session;
+    }
+
     /**
      * Beendet die Verbindung des Clients mit dem Server
      */
     void disconnect() {
+        closing = true;
+        stopWatchdog();
+        downloads.clear();
         try {
             userSession.close();
         } catch (IOException e) {
@@ -62,62 +164,387 @@ public class ClientEndpoint {
      * @param message vom User eingegebene Message, die dem Server übergeben werden soll
      */
     void sendMessage(Message message) {
+        sendMessages(List.of(message));
+    }
+
+    /**
+     * Sendet mehrere Messages des Clients gebündelt an den Server; die Reihenfolge bleibt dabei erhalten.
+     * Ein Frame wird höchstens {@link MessageCodec#MAX_FRAME} lang; eine Message, die ihn länger machen
+     * würde, beginnt einen neuen Frame.
+     *
+     * @param messages vom User eingegebene Messages, die dem Server übergeben werden sollen
+     * @see #sendMessage(Message)
+     */
+    synchronized void sendMessages(List<Message> messages) {
+        messages = withIds(messages);
+        long now = System.currentTimeMillis();
+        for (Message message : messages) {
+            if (message.action() == Message.Action.JOIN) joined = message;
+            else if (message.action() == Message.Action.LEAVE) joined = null;
+            if (message.id() != 0) awaitAck(message, now);
+        }
+        if (reconnecting) {
+            keep(messages);
+            return;
+        }
         try {
-            userSession.getBasicRemote().sendText(message.toString());
-        } catch (IOException e) {
+            if (binary) sendBinary(messages);
+            else sendText(messages);
+        } catch (IOException | IllegalStateException e) {
+            keep(messages); // nach dem Wiederverbinden erneut senden
             try {
                 userSession.close();
             } catch (IOException ex) {
                 e.printStackTrace(System.err);
-            } finally {
-                userSession = null;
             }
         }
     }
 
+    private void sendText(List<Message> messages) throws IOException {
+        List<String> frame = new ArrayList<>();
+        int length = 1; // öffnende Klammer des Arrays
+        for (Message message : messages) {
+            String text = MessageCodec.encode(message);
+            if (!frame.isEmpty() && length + text.length() + 1 > MessageCodec.MAX_FRAME) {
+                userSession.getBasicRemote().sendText(frame.size() == 1 ? frame.get(0) : '[' + String.join(",", frame) + ']');
+                frame.clear();
+                length = 1;
+            }
+            frame.add(text);
+            length += text.length() + 1; // samt Komma bzw. schließender Klammer
+        }
+        userSession.getBasicRemote().sendText(frame.size() == 1 ? frame.get(0) : '[' + String.join(",", frame) + ']');
+    }
+
+    private void sendBinary(List<Message> messages) throws IOException {
+        List<ByteBuffer> frame = new ArrayList<>();
+        int length = 0;
+        for (Message message : messages) {
+            ByteBuffer encoded = MessageCodec.encodeBinary(message);
+            if (!frame.isEmpty() && length + encoded.remaining() > MessageCodec.MAX_FRAME) {
+                userSession.getBasicRemote().sendBinary(concat(frame, length));
+                frame.clear();
+                length = 0;
+            }
+            frame.add(encoded);
+            length += encoded.remaining();
+        }
+        userSession.getBasicRemote().sendBinary(concat(frame, length));
+    }
+
+    private static ByteBuffer concat(List<ByteBuffer> buffers, int length) {
+        if (buffers.size() == 1) return buffers.get(0);
+        ByteBuffer frame = ByteBuffer.allocate(length);
+        for (ByteBuffer buffer : buffers) frame.put(buffer);
+        return frame.flip();
+    }
+
+    /**
+     * Sendet eine Datei als Anhang an den Raum; läuft in einem eigenen Thread "upload"
+     *
+     * @param file zu sendende Datei
+     * @return wird mit einem Hinweis für den User abgeschlossen, sobald der Anhang gesendet
+     * oder abgebrochen wurde; nie mit einer Exception
+     */
+    CompletableFuture<String> sendFile(Path file) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        Thread thread = new Thread(() -> result.complete(upload(file)), "upload");
+        thread.setDaemon(true);
+        thread.start();
+        return result;
+    }
+
+    /**
+     * Speichert einen vollständig empfangenen Anhang im Verzeichnis der Anhänge
+     *
+     * @param attachment ID des Anhangs, wie im Hinweis zu seinem Empfang angegeben
+     * @return wird mit einem Hinweis für den User abgeschlossen; nie mit einer Exception
+     */
+    CompletableFuture<String> saveFile(long attachment) {
+        return downloads.save(attachment);
+    }
+
+    private String upload(Path file) {
+        String name = file.getFileName().toString();
+        if (name.length() > MAX_NAME) name = name.substring(name.length() - MAX_NAME);
+        long id = randomId();
+        uploads.add(id);
+        Session session = userSession;
+        try (FileChannel channel = FileChannel.open(file)) {
+            if (!binary) return "Anhänge sind nur im Binärformat möglich";
+            long size = channel.size();
+            send(session, MessageCodec.encodeChunkHeader(Chunk.start(id, "", name, size)), null);
+            ByteBuffer data = ByteBuffer.allocate(MessageCodec.MAX_CHUNK - MessageCodec.DATA_HEADER);
+            long position = 0;
+            while (position < size) {
+                if (!uploads.contains(id)) return "Anhang %s wurde abgebrochen".formatted(name);
+                data.clear().limit((int) Math.min(data.capacity(), size - position));
+                if (channel.read(data) < 0) throw new IOException("Datei wurde verkürzt");
+                data.flip();
+                int length = data.remaining();
+                send(session, MessageCodec.encodeChunkHeader(Chunk.data(id, position, data)), data);
+                position += length;
+            }
+            send(session, MessageCodec.encodeChunkHeader(Chunk.end(id, size)), null);
+            return "Anhang %s gesendet (%,d Bytes)".formatted(name, size);
+        } catch (IOException | IllegalStateException e) {
+            try {
+                send(session, MessageCodec.encodeChunkHeader(Chunk.abort(id)), null);
+            } catch (IOException | IllegalStateException ignored) {
+                // der Server bricht den Anhang beim Schließen der Session selbst ab
+            }
+            return "Anhang %s konnte nicht gesendet werden: %s".formatted(name, e.getMessage());
+        } finally {
+            uploads.remove(id);
+        }
+    }
+
+    /**
+     * Sendet einen Teil eines Anhangs als eine Nachricht, deren Daten als zweites Fragment folgen;
+     * die Sperre wird nur für diesen einen Teil gehalten
+     *
+     * @throws IOException Wenn die Verbindung seit Beginn des Anhangs unterbrochen wurde
+     */
+    private synchronized void send(Session session, ByteBuffer header, ByteBuffer data) throws IOException {
+        if (reconnecting || session != userSession) throw new IOException("Verbindung unterbrochen");
+        RemoteEndpoint.Basic remote = session.getBasicRemote();
+        if (data == null) remote.sendBinary(header);
+        else {
+            remote.sendBinary(header, false);
+            remote.sendBinary(data, true);
+        }
+    }
+
+    /**
+     * @return die Messages, wobei SEND- und DIRECT-Messages ohne ID eine neue erhalten
+     */
+    private static List<Message> withIds(List<Message> messages) {
+        List<Message> result = null;
+        for (int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            if (message.id() != 0 || message.action() != Message.Action.SEND && message.action() != Message.Action.DIRECT) {
+                continue;
+            }
+            if (result == null) result = new ArrayList<>(messages);
+            result.set(i, message.withId(randomId()));
+        }
+        return result == null ? messages : result;
+    }
+
+    /**
+     * @return eine zufällige, positive ID
+     */
+    private static long randomId() {
+        long id;
+        do id = ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE; while (id == 0);
+        return id;
+    }
+
+    /**
+     * Merkt sich eine Message bis zu ihrer Bestätigung; der Zeitpunkt des ersten Sendens bleibt erhalten.
+     * Sind es zu viele, wird die älteste vergessen; das Durchsuchen geschieht nur, solange der Server nicht bestätigt.
+     */
+    private void awaitAck(Message message, long now) {
+        unacked.putIfAbsent(message.id(), new Pending(message, now, order++));
+        if (unacked.size() > MAX_UNACKED) {
+            unacked.values().stream().min(Comparator.comparingLong(Pending::order))
+                    .ifPresent(oldest -> unacked.remove(oldest.message().id(), oldest));
+        }
+    }
+
+    /**
+     * Merkt sich nicht gesendete Messages ohne ID; solche mit ID stehen bereits unter den unbestätigten
+     */
+    private void keep(List<Message> messages) {
+        for (Message message : messages) {
+            if (message.id() == 0) unsent.add(message);
+        }
+    }
+
     /**
      * Gibt die Information aus, dass sich ein neuer User mit dem
-     * Server verbunden hat, sobald die Verbindung aufgebaut wurde
+     * Server verbunden hat, sobald die Verbindung aufgebaut wurde;
+     * nach dem Wiederverbinden wird dies auch im Verlauf angezeigt
      *
      * @param session nicht genutzt
      */
     @OnOpen
     public void onOpen(Session session) {
         System.out.println("User connected");
+        lastReceived = System.nanoTime();
+        synchronized (this) {
+            if (reconnecting) incoming.offer(notice("Verbindung wiederhergestellt"));
+        }
     }
 
     /**
-     * Übergibt die eingehende Nachricht der gespeicherten {@link SynchronousQueue}
+     * Übergibt die eingehende Nachricht der gespeicherten {@link Inbox};
+     * gebündelte Nachrichten werden dabei einzeln und in ihrer Reihenfolge übergeben.
+     * Blockiert nie, auch wenn die Oberfläche nicht hinterherkommt.
      *
      * @param session nicht benutzt
      * @param msg     Die vom Server eingehende Methode
      */
     @OnMessage
     public void onMessage(Session session, String msg) {
-        try {
-            incomingMessage.put(Message.getFromString(msg));
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+        lastReceived = System.nanoTime();
+        for (Message message : MessageCodec.decodeAll(msg)) receive(message);
+    }
+
+    /**
+     * Übergibt die eingehende(n) Nachricht(en) im Binärformat der gespeicherten {@link Inbox};
+     * Teile von Anhängen werden stattdessen an {@link Downloads} übergeben
+     *
+     * @param session nicht benutzt
+     * @param msg     Die vom Server eingehende Methode
+     */
+    @OnMessage
+    public void onMessage(Session session, ByteBuffer msg) {
+        lastReceived = System.nanoTime();
+        if (!MessageCodec.isChunk(msg)) {
+            for (Message message : MessageCodec.decodeAllBinary(msg)) receive(message);
+            return;
+        }
+        Chunk chunk = MessageCodec.decodeChunk(msg);
+        // ein ABORT mit der ID eines eigenen Anhangs: der Server hat ihn abgelehnt
+        if (chunk.kind() != Chunk.Kind.ABORT || !uploads.remove(chunk.attachment())) downloads.receive(chunk);
+    }
+
+    /**
+     * Vermerkt die Antwort des Servers auf einen Ping
+     *
+     * @param session nicht benutzt
+     * @param pong    nicht benutzt
+     */
+    @OnMessage
+    public void onPong(Session session, PongMessage pong) {
+        lastReceived = System.nanoTime();
+    }
+
+    /**
+     * Pingt einen Server, von dem ein Intervall lang nichts kam, und schließt die Verbindung,
+     * wenn er zu lange schweigt; läuft im Thread "heartbeat"
+     */
+    private void checkServer() {
+        long silent = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastReceived);
+        if (closing || silent < heartbeatMillis) return;
+        synchronized (this) { // nicht gleichzeitig mit sendMessages
+            Session session = userSession;
+            if (reconnecting || session == null || !session.isOpen()) return;
             try {
-                userSession.close();
-            } catch (IOException ex) {
-                e.printStackTrace(System.err);
-            } finally {
-                userSession = null;
-                onCloseAction.run();
+                if (silent >= SILENT_INTERVALS * heartbeatMillis) {
+                    session.close(new CloseReason(CloseReason.CloseCodes.GOING_AWAY, "server silent"));
+                } else {
+                    session.getBasicRemote().sendPing(ByteBuffer.allocate(0));
+                }
+            } catch (IOException | IllegalStateException e) {
+                // onClose verbindet gegebenenfalls neu
             }
         }
     }
 
+    private synchronized void stopWatchdog() {
+        if (watchdog != null) watchdog.cancel(false);
+        watchdog = null;
+    }
+
+    /**
+     * Merkt sich Sequenznummern und Bestätigungen und übergibt alle übrigen Nachrichten der {@link Inbox}
+     */
+    private void receive(Message message) {
+        switch (message.action()) {
+            case SEQ -> {
+                try {
+                    lastSeq = Long.parseLong(message.content());
+                } catch (NumberFormatException ignored) {
+                    // ohne gültige Nummer wird beim Wiederverbinden eben der ganze Verlauf gesendet
+                }
+            }
+            case ACK -> message.content().lines().forEach(id -> {
+                try {
+                    unacked.remove(Long.parseLong(id));
+                } catch (NumberFormatException ignored) {
+                    // unbekannte IDs gibt es nicht zu entfernen
+                }
+            });
+            default -> incoming.offer(message);
+        }
+    }
+
     /**
      * Stoppt den Client, wenn das Fenster des Clients geschlossen wird
      * und gibt aus, dass der User disconnected ist.
+     * Bricht die Verbindung eines angemeldeten Users unerwartet ab, wird stattdessen neu verbunden.
      *
      * @param session nicht genutzt
      */
     @OnClose
     public void onClose(Session session) {
         System.out.println("User disconnected");
+        synchronized (this) {
+            if (session != userSession || reconnecting) return; // eine ältere Verbindung
+            downloads.abortAll();
+            if (!closing && joined != null) {
+                reconnecting = true;
+                incoming.offer(notice("Verbindung unterbrochen; verbinde erneut"));
+                Thread thread = new Thread(this::reconnect, "reconnect");
+                thread.setDaemon(true);
+                thread.start();
+                return;
+            }
+        }
+        stopWatchdog();
+        onCloseAction.run();
+    }
+
+    /**
+     * Verbindet erneut und setzt die Session ab der zuletzt erhaltenen Sequenznummer fort;
+     * läuft im Thread "reconnect"
+     */
+    private void reconnect() {
+        long delay = RECONNECT_DELAY_MILLIS;
+        for (int attempt = 1; attempt <= RECONNECT_ATTEMPTS && !closing; attempt++, delay *= 2) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(delay);
+                open(resume(uri, lastSeq));
+            } catch (DeploymentException | IOException | URISyntaxException e) {
+                continue;
+            } catch (InterruptedException e) {
+                break;
+            }
+            List<Message> resend = new ArrayList<>();
+            synchronized (this) {
+                if (joined != null) resend.add(joined);
+                long oldest = System.currentTimeMillis() - RETRY_MILLIS;
+                unacked.values().removeIf(pending -> pending.sentAt() < oldest);
+                unacked.values().stream().sorted(Comparator.comparingLong(Pending::order))
+                        .forEach(pending -> resend.add(pending.message()));
+                resend.addAll(unsent);
+                unsent.clear();
+                reconnecting = false;
+            }
+            if (!resend.isEmpty()) sendMessages(resend);
+            return;
+        }
+        synchronized (this) {
+            reconnecting = false;
+            unsent.clear();
+        }
+        stopWatchdog();
         onCloseAction.run();
     }
+
+    private static Message notice(String text) {
+        return new Message(Message.Action.NOTICE, "", text);
+    }
+
+    /**
+     * Eine gesendete, noch nicht bestätigte Nachricht
+     *
+     * @param message die Nachricht samt ID
+     * @param sentAt  Zeitpunkt des ersten Sendens
+     * @param order   Reihenfolge des ersten Sendens
+     */
+    private record Pending(Message message, long sentAt, long order) {
+    }
 }
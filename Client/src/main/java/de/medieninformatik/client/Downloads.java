@@ -0,0 +1,228 @@
+package de.medieninformatik.client;
+
+import de.medieninformatik.common.Chunk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Nimmt empfangene Anhänge entgegen und legt sie erst auf Wunsch des Users ab.
+ * <p>
+ * Jeder {@link Chunk} wird einmal kopiert und in einem eigenen Thread "download" in eine temporäre Datei
+ * eines eigenen temporären Verzeichnisses geschrieben, sodass der WebSocket-Thread nie auf die Festplatte
+ * wartet und ein Anhang nie als Ganzes im Speicher liegt. Warten mehr als {@value #MAX_PENDING} Bytes
+ * auf das Schreiben, wird der betroffene Anhang abgebrochen.
+ * Ein vollständiger Anhang bleibt dort liegen, bis der User ihn mit {@link #save(long)} in das Verzeichnis
+ * der Anhänge verschiebt; existiert sein Dateiname dort bereits, wird die ID des Anhangs vorangestellt.
+ * Nicht gespeicherte Anhänge werden mit {@link #clear()} gelöscht.
+ * Beginn, Ende und Abbruch eines Anhangs werden als Hinweis gemeldet, ebenfalls im Thread "download".
+ */
+final class Downloads {
+    private static final long MAX_PENDING = 16 << 20;
+
+    private final Path directory;
+    private final Consumer<String> notices;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "download");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicLong pending = new AtomicLong(); // Bytes, die noch geschrieben werden müssen
+    private final Map<Long, Download> running = new HashMap<>(); // nur im Thread "download"
+    private final Map<Long, Download> received = new HashMap<>(); // nur im Thread "download"; noch nicht gespeichert
+    private Path spool; // nur im Thread "download"; temporäres Verzeichnis, null bis zum ersten Anhang
+
+    /**
+     * Konstruktor
+     *
+     * @param directory Verzeichnis, in welches Anhänge gespeichert werden; wird bei Bedarf angelegt
+     * @param notices   erhält die Hinweise für den User, im Thread "download"
+     */
+    Downloads(Path directory, Consumer<String> notices) {
+        this.directory = directory;
+        this.notices = notices;
+    }
+
+    /**
+     * Übergibt einen empfangenen Teil dem Thread "download"; blockiert nie.
+     * Teile unbekannter Anhänge werden ignoriert.
+     *
+     * @param chunk empfangener Teil; seine Daten werden kopiert
+     */
+    void receive(Chunk chunk) {
+        if (chunk.kind() != Chunk.Kind.DATA) {
+            writer.execute(() -> handle(chunk));
+            return;
+        }
+        int length = chunk.data().remaining();
+        if (pending.addAndGet(length) > MAX_PENDING) {
+            pending.addAndGet(-length);
+            writer.execute(() -> abort(chunk.attachment(), "Anhang %s von %s wurde abgebrochen, da er nicht schnell genug geschrieben wurde"));
+            return;
+        }
+        ByteBuffer copy = ByteBuffer.allocate(length).put(chunk.data()).flip();
+        Chunk copied = Chunk.data(chunk.attachment(), chunk.position(), copy);
+        writer.execute(() -> {
+            pending.addAndGet(-length);
+            handle(copied);
+        });
+    }
+
+    /**
+     * Verschiebt einen vollständig empfangenen Anhang in das Verzeichnis der Anhänge
+     *
+     * @param attachment ID des Anhangs
+     * @return wird mit einem Hinweis für den User abgeschlossen; nie mit einer Exception
+     */
+    CompletableFuture<String> save(long attachment) {
+        return CompletableFuture.supplyAsync(() -> {
+            Download download = received.remove(attachment);
+            if (download == null) return "Es gibt keinen empfangenen Anhang %d".formatted(attachment);
+            try {
+                Files.createDirectories(directory);
+                return "Anhang %s von %s gespeichert: %s".formatted(download.name, download.user, store(attachment, download));
+            } catch (IOException e) {
+                received.put(attachment, download);
+                return "Anhang %s konnte nicht gespeichert werden: %s".formatted(download.name, e.getMessage());
+            }
+        }, writer);
+    }
+
+    /**
+     * Bricht alle laufenden Anhänge ab, z.B. weil die Verbindung unterbrochen wurde;
+     * ihre restlichen Teile würden nach dem Wiederverbinden nicht mehr ankommen
+     */
+    void abortAll() {
+        writer.execute(() -> {
+            for (long attachment : new ArrayList<>(running.keySet())) abort(attachment, "Anhang %s von %s wurde abgebrochen");
+        });
+    }
+
+    /**
+     * Bricht alle laufenden Anhänge ab und löscht alle nicht gespeicherten, z.B. beim Abmelden
+     */
+    void clear() {
+        abortAll();
+        writer.execute(() -> {
+            List<Download> discarded = new ArrayList<>(received.values());
+            received.clear();
+            discarded.forEach(Downloads::discard);
+            if (spool == null) return;
+            try {
+                Files.deleteIfExists(spool);
+            } catch (IOException ignored) {
+                // das temporäre Verzeichnis bleibt dann eben liegen
+            }
+            spool = null;
+        });
+    }
+
+    private void handle(Chunk chunk) {
+        Download download = running.get(chunk.attachment());
+        try {
+            switch (chunk.kind()) {
+                case START -> {
+                    if (download != null || received.containsKey(chunk.attachment())) return;
+                    if (spool == null) spool = Files.createTempDirectory("chat-downloads-");
+                    Path part = Files.createTempFile(spool, "chat-", ".part");
+                    running.put(chunk.attachment(), new Download(chunk.user(), fileName(chunk.name()), chunk.position(),
+                            part, FileChannel.open(part, StandardOpenOption.WRITE)));
+                    notices.accept("%s sendet %s (%,d Bytes)".formatted(chunk.user(), chunk.name(), chunk.position()));
+                }
+                case DATA -> {
+                    if (download == null) return;
+                    if (chunk.position() != download.written) throw new IOException("Teile fehlen");
+                    while (chunk.data().hasRemaining()) download.written += download.channel.write(chunk.data());
+                }
+                case END -> {
+                    if (download == null) return;
+                    running.remove(chunk.attachment());
+                    download.channel.close();
+                    if (download.written != download.size) throw new IOException("Teile fehlen");
+                    received.put(chunk.attachment(), download);
+                    notices.accept("Anhang %s von %s empfangen (%,d Bytes); speichern mit /speichern %d"
+                            .formatted(download.name, download.user, download.size, chunk.attachment()));
+                }
+                case ABORT -> abort(chunk.attachment(), "Anhang %s von %s wurde abgebrochen");
+            }
+        } catch (IOException e) {
+            if (download == null) {
+                notices.accept("Anhang %s konnte nicht empfangen werden: %s".formatted(chunk.name(), e.getMessage()));
+                return;
+            }
+            running.remove(chunk.attachment());
+            discard(download);
+            notices.accept("Anhang %s von %s konnte nicht empfangen werden: %s".formatted(download.name, download.user, e.getMessage()));
+        }
+    }
+
+    /**
+     * @param text Hinweis mit Platzhaltern für Dateiname und Absender
+     */
+    private void abort(long attachment, String text) {
+        Download download = running.remove(attachment);
+        if (download == null) return;
+        discard(download);
+        notices.accept(text.formatted(download.name, download.user));
+    }
+
+    private Path store(long attachment, Download download) throws IOException {
+        try {
+            return Files.move(download.part, directory.resolve(download.name));
+        } catch (FileAlreadyExistsException e) {
+            return Files.move(download.part, directory.resolve(attachment + "-" + download.name));
+        }
+    }
+
+    private static void discard(Download download) {
+        try {
+            download.channel.close();
+            Files.deleteIfExists(download.part);
+        } catch (IOException ignored) {
+            // die temporäre Datei bleibt dann eben liegen
+        }
+    }
+
+    /**
+     * @return der letzte Bestandteil des vom Absender angegebenen Namens, ohne Steuerzeichen
+     */
+    private static String fileName(String name) {
+        String base = name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')) + 1)
+                .replaceAll("[\\p{Cntrl}:*?\"<>|]", "_").strip();
+        return base.isEmpty() || base.equals(".") || base.equals("..") ? "anhang" : base;
+    }
+
+    /**
+     * Ein laufender oder empfangener Anhang
+     */
+    private static final class Download {
+        private final String user;
+        private final String name;
+        private final long size;
+        private final Path part;
+        private final FileChannel channel;
+        private long written; // nur im Thread "download"
+
+        Download(String user, String name, long size, Path part, FileChannel channel) {
+            this.user = user;
+            this.name = name;
+            this.size = size;
+            this.part = part;
+            this.channel = channel;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package de.medieninformatik.client;
+
+import de.medieninformatik.common.Message;
+import javafx.collections.ObservableListBase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Chat-Verlauf als beobachtbare Liste fester Kapazität.
+ * <p>
+ * Die Nachrichten liegen in einem Ringpuffer; ist dieser voll, werden beim
+ * Anhängen die ältesten Nachrichten verworfen. Speicherbedarf und Kosten
+ * eines Anhängens bleiben so auch über eine lange Sitzung konstant.
+ * Darf nur im JavaFX-Thread verwendet werden.
+ */
+final class History extends ObservableListBase<Message> {
+    private final Message[] buffer;
+    private int start; // Position des ältesten Eintrags
+    private int size;
+
+    /**
+     * Konstruktor; erzeugt einen leeren Verlauf
+     *
+     * @param capacity maximale Anzahl an Nachrichten im Verlauf
+     */
+    History(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive");
+        buffer = new Message[capacity];
+    }
+
+    /**
+     * Hängt mehrere Nachrichten in einer einzigen Änderung an den Verlauf an;
+     * überzählige alte Nachrichten werden dabei entfernt
+     *
+     * @param messages neue Nachrichten in ihrer Reihenfolge
+     */
+    void append(List<Message> messages) {
+        if (messages.isEmpty()) return;
+        int from = Math.max(0, messages.size() - buffer.length); // passt nicht einmal alles Neue hinein
+        int added = messages.size() - from;
+        int overflow = Math.max(0, size + added - buffer.length);
+        beginChange();
+        if (overflow > 0) {
+            List<Message> removed = new ArrayList<>(overflow);
+            for (int i = 0; i < overflow; i++) {
+                int index = slot(i);
+                removed.add(buffer[index]);
+                buffer[index] = null;
+            }
+            start = slot(overflow);
+            size -= overflow;
+            nextRemove(0, removed);
+        }
+        int first = size;
+        for (int i = from; i < messages.size(); i++) {
+            buffer[slot(size)] = messages.get(i);
+            size++;
+        }
+        nextAdd(first, size);
+        endChange();
+    }
+
+    @Override
+    public Message get(int index) {
+        Objects.checkIndex(index, size);
+        return buffer[slot(index)];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    private int slot(int index) {
+        int slot = start + index;
+        return slot < buffer.length ? slot : slot - buffer.length;
+    }
+}
@@ -0,0 +1,89 @@
+package de.medieninformatik.client;
+
+import de.medieninformatik.common.Message;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Begrenzter Ringpuffer für eingehende Nachrichten zwischen dem
+ * WebSocket-Thread (Erzeuger) und dem JavaFX-Thread (Verbraucher).
+ * <p>
+ * Der Erzeuger blockiert nie: ist der Puffer voll, wird die neue Nachricht
+ * verworfen und gezählt. Es darf zu jedem Zeitpunkt nur ein Erzeuger und
+ * nur ein Verbraucher aktiv sein.
+ */
+final class Inbox {
+    private final Message[] buffer;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(); // nächste zu lesende Position
+    private final AtomicLong tail = new AtomicLong(); // nächste zu schreibende Position
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Konstruktor; erzeugt einen leeren Puffer
+     *
+     * @param capacity Mindestkapazität; wird auf die nächste Zweierpotenz aufgerundet
+     */
+    Inbox(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        buffer = new Message[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Legt eine Nachricht im Puffer ab; blockiert nie
+     *
+     * @param message eingegangene Nachricht
+     * @return false, wenn der Puffer voll war und die Nachricht verworfen wurde
+     */
+    boolean offer(Message message) {
+        long t = tail.get();
+        if (t - head.get() >= buffer.length) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        buffer[(int) (t & mask)] = message;
+        tail.lazySet(t + 1); // veröffentlicht den Eintrag für den Verbraucher
+        return true;
+    }
+
+    /**
+     * Übergibt alle wartenden Nachrichten in ihrer Reihenfolge an den Verbraucher
+     *
+     * @param consumer Verbraucher der Nachrichten
+     * @return Anzahl der übergebenen Nachrichten
+     */
+    int drainTo(Consumer<Message> consumer) {
+        long h = head.get();
+        long t = tail.get();
+        if (h == t) return 0;
+        for (long i = h; i < t; i++) {
+            int index = (int) (i & mask);
+            Message message = buffer[index];
+            buffer[index] = null;
+            consumer.accept(message);
+        }
+        head.lazySet(t); // gibt die Plätze für den Erzeuger frei
+        return (int) (t - h);
+    }
+
+    /**
+     * Gibt die Anzahl der seit dem letzten Aufruf verworfenen Nachrichten zurück
+     * und setzt diese zurück
+     *
+     * @return Anzahl der verworfenen Nachrichten
+     */
+    long takeDropped() {
+        return dropped.getAndSet(0);
+    }
+
+    /**
+     * Verwirft alle wartenden Nachrichten; darf nur vom Verbraucher aufgerufen werden
+     */
+    void clear() {
+        drainTo(message -> {
+        });
+        dropped.set(0);
+    }
+}
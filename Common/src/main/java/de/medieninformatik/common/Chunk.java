@@ -0,0 +1,116 @@
+package de.medieninformatik.common;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * Teil eines Anhangs, welcher als eigene binäre Nachricht übertragen wird.
+ * <p>
+ * Ein Anhang beginnt mit {@link Kind#START} (Absender, Dateiname und Größe), es folgen beliebig viele
+ * {@link Kind#DATA} mit den Daten ab ihrer jeweiligen Position und zuletzt {@link Kind#END} bzw.
+ * {@link Kind#ABORT}, wenn die Übertragung abgebrochen wurde. Da jeder Teil eine vollständige
+ * Nachricht ist, können zwischen zwei Teilen jederzeit gewöhnliche Messages gesendet werden.
+ * Das Format beschreibt {@link MessageCodec#encodeChunkHeader(Chunk)}.
+ *
+ * @param kind       Art des Teils; darf nicht null sein
+ * @param attachment ID des Anhangs
+ * @param position   bei DATA die Position der Daten im Anhang, bei START und END seine Größe, sonst 0
+ * @param user       Absender bei START, sonst leer; darf nicht null sein
+ * @param name       Dateiname bei START, sonst leer; darf nicht null sein
+ * @param data       Daten bei DATA, sonst leer; darf nicht null sein
+ */
+public record Chunk(Kind kind, long attachment, long position, String user, String name, ByteBuffer data) {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
+    /**
+     * Konstruktor
+     *
+     * @throws NullPointerException Wenn einer der Werte null ist
+     */
+    public Chunk {
+        Objects.requireNonNull(kind);
+        Objects.requireNonNull(user);
+        Objects.requireNonNull(name);
+        Objects.requireNonNull(data);
+    }
+
+    /**
+     * @param attachment ID des Anhangs
+     * @param user       Absender
+     * @param name       Dateiname
+     * @param size       Größe des Anhangs in Bytes
+     * @return der erste Teil eines Anhangs
+     */
+    public static Chunk start(long attachment, String user, String name, long size) {
+        return new Chunk(Kind.START, attachment, size, user, name, EMPTY);
+    }
+
+    /**
+     * @param attachment ID des Anhangs
+     * @param position   Position der Daten im Anhang
+     * @param data       Daten; werden nicht kopiert
+     * @return ein Teil mit Daten
+     */
+    public static Chunk data(long attachment, long position, ByteBuffer data) {
+        return new Chunk(Kind.DATA, attachment, position, "", "", data);
+    }
+
+    /**
+     * @param attachment ID des Anhangs
+     * @param size       Größe des Anhangs in Bytes
+     * @return der letzte Teil eines vollständig übertragenen Anhangs
+     */
+    public static Chunk end(long attachment, long size) {
+        return new Chunk(Kind.END, attachment, size, "", "", EMPTY);
+    }
+
+    /**
+     * @param attachment ID des Anhangs
+     * @return der letzte Teil eines abgebrochenen Anhangs
+     */
+    public static Chunk abort(long attachment) {
+        return new Chunk(Kind.ABORT, attachment, 0, "", "", EMPTY);
+    }
+
+    /**
+     * @return true, wenn nach diesem Teil keine weiteren des Anhangs folgen
+     */
+    public boolean last() {
+        return kind == Kind.END || kind == Kind.ABORT;
+    }
+
+    /**
+     * Art eines Teils
+     */
+    public enum Kind {
+        START(1), DATA(2), END(3), ABORT(4);
+
+        private final byte code;
+
+        Kind(int code) {
+            this.code = (byte) code;
+        }
+
+        /**
+         * @return der feste Code im Binärformat
+         */
+        public byte code() {
+            return code;
+        }
+
+        /**
+         * @param code Code des Binärformats
+         * @return die zugehörige Art
+         * @throws IllegalArgumentException Wenn es zu dem Code keine Art gibt
+         */
+        public static Kind getFromCode(byte code) {
+            return switch (code) {
+                case 1 -> START;
+                case 2 -> DATA;
+                case 3 -> END;
+                case 4 -> ABORT;
+                default -> throw new IllegalArgumentException("byte cannot be parsed into a chunk kind");
+            };
+        }
+    }
+}
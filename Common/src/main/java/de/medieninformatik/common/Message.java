@@ -2,7 +2,6 @@ package de.medieninformatik.common;
 
 import java.io.Serializable;
 import java.util.Objects;
-import java.util.regex.Pattern;
 
 /**
  * Serialisierbare Klasse zum Austausch von Nachrichten
@@ -11,24 +10,48 @@ import java.util.regex.Pattern;
  * @author Externe Quellen
  * @author Malte Kasolowsky <code>m30114</code>
  */
-public record Message(Action action, String user, String content) implements Serializable {
-    private static final Pattern MATCHER
-            = Pattern.compile("^\\{\"action\":\"[^\"]+\",\"user\":\"[^\"]+\",\"message\":\"[^\"]+\"}$");
-    private static final Pattern SPLITTER
-            = Pattern.compile("(^\\{\"action\":\")|(\",\"(user|message)\":\")|(\"}$)");
-
+public record Message(Action action, String user, String content, String recipient, long id) implements Serializable {
     /**
      * Konstruktor; erzeigt eine neue Instant ausgehend von den übergebenen Werten
      *
+     * @param action    Die Aktion, welche mit der Message ausgeführt werden soll; darf nicht null sein
+     * @param user      Der Urheber der Message; darf nicht null sein
+     * @param content   Der Inhalt der Message; darf nicht null sein
+     * @param recipient Der Empfänger einer {@link Action#DIRECT}-Message, sonst leer; darf nicht null sein
+     * @param id        Vom Client vergebene ID, an welcher der Server Wiederholungen erkennt; 0 für keine
+     * @throws NullPointerException Wenn einer der Werte null ist
+     */
+    public Message(Action action, String user, String content, String recipient, long id) {
+        this.action = Objects.requireNonNull(action);
+        this.user = Objects.requireNonNull(user);
+        this.content = Objects.requireNonNull(content);
+        this.recipient = Objects.requireNonNull(recipient);
+        this.id = id;
+    }
+
+    /**
+     * Konstruktor; erzeugt eine neue Instanz ohne ID
+     *
+     * @param action    Die Aktion, welche mit der Message ausgeführt werden soll; darf nicht null sein
+     * @param user      Der Urheber der Message; darf nicht null sein
+     * @param content   Der Inhalt der Message; darf nicht null sein
+     * @param recipient Der Empfänger einer {@link Action#DIRECT}-Message, sonst leer; darf nicht null sein
+     * @throws NullPointerException Wenn einer der Werte null ist
+     */
+    public Message(Action action, String user, String content, String recipient) {
+        this(action, user, content, recipient, 0);
+    }
+
+    /**
+     * Konstruktor; erzeugt eine neue Instanz ohne Empfänger
+     *
      * @param action  Die Aktion, welche mit der Message ausgeführt werden soll; darf nicht null sein
      * @param user    Der Urheber der Message; darf nicht null sein
      * @param content Der Inhalt der Message; darf nicht null sein
      * @throws NullPointerException Wenn einer der Werte null ist
      */
     public Message(Action action, String user, String content) {
-        this.action = Objects.requireNonNull(action);
-        this.user = Objects.requireNonNull(user);
-        this.content = Objects.requireNonNull(content);
+        this(action, user, content, "");
     }
 
     /**
@@ -49,20 +72,23 @@ public record Message(Action action, String user, String content) implements Ser
         });
     }
 
+    /**
+     * @param id vom Client vergebene ID; 0 für keine
+     * @return eine Kopie dieser Message mit der übergebenen ID
+     */
+    public Message withId(long id) {
+        return id == this.id ? this : new Message(action, user, content, recipient, id);
+    }
+
     /**
      * Erzeugt eine neue {@link Message} ausgehend von einem String
      *
      * @return eine neue Instanz, deren Werte aus dem übergebenen String gezogen wurden
      * @throws IllegalArgumentException Wenn der übergebene String nicht in ein neues Objekt umgewandelt werden kann
+     * @see MessageCodec#decode(CharSequence)
      */
     public static Message getFromString(String msg) {
-        if (MATCHER.matcher(String.valueOf(msg)).matches()) {
-            String[] msgParts = SPLITTER.split(msg);
-            return new Message(
-                    // first element in array is empty because of split, thus start with the second
-                    Action.getFromString(msgParts[1]), msgParts[2], msgParts[3]
-            );
-        } else throw new IllegalArgumentException("string cannot pe parsed into a message object");
+        return MessageCodec.decode(msg);
     }
 
     /**
@@ -70,17 +96,59 @@ public record Message(Action action, String user, String content) implements Ser
      * welches für {@link Message#getFromString(String)} benötigt wird
      *
      * @return Die Message als String
+     * @see MessageCodec#encode(Message)
      */
     @Override
     public String toString() {
-        return "{\"action\":\"%s\",\"user\":\"%s\",\"message\":\"%s\"}".formatted(action, user, content);
+        return MessageCodec.encode(this);
     }
 
     /**
      * Inneres Enum, welche die Aktionen, die die Nachricht ausführen kann beinhaltet
      */
     public enum Action {
-        JOIN, SEND, LEAVE; // Anmelden, Nachricht senden, Abmelden
+        JOIN(1), SEND(2), LEAVE(3), // Anmelden, Nachricht senden, Abmelden
+        NOTICE(4), // Hinweis des Servers an einen einzelnen Client, z.B. bei zu vielen Nachrichten
+        ROSTER(5), // alle Anwesenden des Raumes, durch Zeilenumbrüche getrennt; vom Server beim Betreten gesendet
+        PRESENCE(6), // Änderungen der Anwesenden als Zeilen "+name" bzw. "-name"; vom Server gesendet
+        DIRECT(7), // Nachricht nur an den recipient (und die übrigen Sessions des Absenders)
+        SEQ(8), // Sequenznummer des Raumes bis einschließlich dieses Frames; vom Server gesendet
+        ACK(9); // IDs angenommener Messages, durch Zeilenumbrüche getrennt; vom Server nur an den Absender
+
+        private final byte code;
+
+        Action(int code) {
+            this.code = (byte) code;
+        }
+
+        /**
+         * @return der feste Code der Action im Binärformat
+         */
+        public byte code() {
+            return code;
+        }
+
+        /**
+         * Ermittelt die Action zu einem Code des Binärformats
+         *
+         * @param code Code der Action
+         * @return die zugehörige Action
+         * @throws IllegalArgumentException Wenn es zu dem Code keine Action gibt
+         */
+        public static Action getFromCode(byte code) {
+            return switch (code) {
+                case 1 -> JOIN;
+                case 2 -> SEND;
+                case 3 -> LEAVE;
+                case 4 -> NOTICE;
+                case 5 -> ROSTER;
+                case 6 -> PRESENCE;
+                case 7 -> DIRECT;
+                case 8 -> SEQ;
+                case 9 -> ACK;
+                default -> throw new IllegalArgumentException("byte cannot be parsed into an action object");
+            };
+        }
 
         /**
          * Unterscheidet welche der möglichen Actions ausgeführt wurde
@@ -93,6 +161,12 @@ public record Message(Action action, String user, String content) implements Ser
                 case "JOIN" -> JOIN;
                 case "SEND" -> SEND;
                 case "LEAVE" -> LEAVE;
+                case "NOTICE" -> NOTICE;
+                case "ROSTER" -> ROSTER;
+                case "PRESENCE" -> PRESENCE;
+                case "DIRECT" -> DIRECT;
+                case "SEQ" -> SEQ;
+                case "ACK" -> ACK;
                 default -> throw new IllegalArgumentException("string cannot be parsed into an action object");
             };
         }
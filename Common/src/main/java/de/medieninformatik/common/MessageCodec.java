@@ -0,0 +1,560 @@
+package de.medieninformatik.common;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Utility-Klasse zum Kodieren und Dekodieren einer {@link Message} im Textformat
+ * <code>{"action":"...","user":"...","message":"..."}</code>; ein Empfänger wird,
+ * sofern vorhanden, als <code>"to":"..."</code> angehängt, eine ID als <code>"id":123</code>.
+ * <p>
+ * Beide Richtungen arbeiten in einem einzigen Durchlauf ohne reguläre Ausdrücke
+ * und ohne Zwischen-Arrays. Anführungszeichen, Backslashes und Steuerzeichen
+ * werden wie in JSON maskiert; unbekannte Felder werden beim Dekodieren übersprungen.
+ * <p>
+ * Daneben gibt es ein kompaktes Binärformat, welches über das WebSocket-Subprotokoll
+ * {@link #BINARY_SUBPROTOCOL} ausgehandelt wird: die Action als ein Byte, dessen höchstes Bit
+ * eine darauf folgende ID mit 8 Byte anzeigt, danach <code>user</code> mit 2 Byte Länge und <code>content</code> mit 4 Byte Länge,
+ * jeweils UTF-8-kodiert; nur bei {@link Message.Action#DIRECT} folgt der Empfänger mit 2 Byte Länge.
+ * <p>
+ * Mehrere Messages können in einem Frame gebündelt werden: im Textformat als
+ * Array <code>[{...},{...}]</code>, im Binärformat einfach hintereinander.
+ * <p>
+ * Teile eines Anhangs ({@link Chunk}) gibt es nur im Binärformat; sie beginnen mit dem Byte 0,
+ * welches keine Action hat, und werden nie mit Messages gebündelt, siehe {@link #isChunk(ByteBuffer)}.
+ */
+public final class MessageCodec {
+    /**
+     * Name des WebSocket-Subprotokolls für das Binärformat
+     */
+    public static final String BINARY_SUBPROTOCOL = "chat.bin";
+    /**
+     * Größte Länge eines Frames mit gebündelten Messages, im Textformat in Zeichen, im Binärformat in Bytes;
+     * entspricht dem Puffer, welchen ein WebSocket-Container standardmäßig für eine Nachricht vorsieht.
+     * Längere Nachrichten schließt der Empfänger mit 1009; nur eine einzelne Message darf länger sein.
+     */
+    public static final int MAX_FRAME = 8192;
+    /**
+     * Größte Länge eines {@link Chunk} samt Kopf in Bytes; entspricht dem Puffer,
+     * welchen ein WebSocket-Container standardmäßig für eine binäre Nachricht vorsieht
+     */
+    public static final int MAX_CHUNK = 8192;
+    /**
+     * Länge des Kopfes eines {@link Chunk.Kind#DATA}-Teils in Bytes
+     */
+    public static final int DATA_HEADER = 18;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final Message.Action[] ACTIONS = Message.Action.values();
+    private static final int HAS_ID = 0x80;
+    private static final byte CHUNK = 0;
+
+    /**
+     * Privater Konstruktor; da eine Instanziierung nicht vonnöten ist
+     */
+    private MessageCodec() {
+    }
+
+    /**
+     * Kodiert eine Message in ihr Textformat
+     *
+     * @param message zu kodierende Message
+     * @return die Message als Text
+     */
+    public static String encode(Message message) {
+        int size = 48 + message.user().length() + message.content().length() + message.recipient().length();
+        return encode(message, new StringBuilder(size)).toString();
+    }
+
+    /**
+     * Hängt das Textformat einer Message an einen {@link StringBuilder} an
+     *
+     * @param message zu kodierende Message
+     * @param out     Ziel der Kodierung
+     * @return der übergebene StringBuilder
+     */
+    public static StringBuilder encode(Message message, StringBuilder out) {
+        out.append("{\"action\":\"").append(message.action().name());
+        out.append("\",\"user\":\"");
+        escape(message.user(), out);
+        out.append("\",\"message\":\"");
+        escape(message.content(), out);
+        if (!message.recipient().isEmpty()) {
+            out.append("\",\"to\":\"");
+            escape(message.recipient(), out);
+        }
+        out.append('"');
+        if (message.id() != 0) out.append(",\"id\":").append(message.id());
+        return out.append('}');
+    }
+
+    /**
+     * Kodiert mehrere Messages als Array in das Textformat
+     *
+     * @param messages zu kodierende Messages
+     * @return die Messages als Text
+     */
+    public static String encode(List<Message> messages) {
+        StringBuilder out = new StringBuilder(64 * messages.size()).append('[');
+        for (int i = 0; i < messages.size(); i++) {
+            if (i > 0) out.append(',');
+            encode(messages.get(i), out);
+        }
+        return out.append(']').toString();
+    }
+
+    /**
+     * Dekodiert eine Message aus ihrem Textformat
+     *
+     * @param text zu dekodierender Text
+     * @return die dekodierte Message
+     * @throws IllegalArgumentException Wenn der Text nicht in eine Message umgewandelt werden kann
+     */
+    public static Message decode(CharSequence text) {
+        if (text == null) throw new IllegalArgumentException("string cannot pe parsed into a message object");
+        Parser parser = new Parser(text);
+        Message message = parser.message();
+        parser.end();
+        return message;
+    }
+
+    /**
+     * Dekodiert eine einzelne Message oder ein Array von Messages aus dem Textformat
+     *
+     * @param text zu dekodierender Text
+     * @return die dekodierten Messages in ihrer Reihenfolge
+     * @throws IllegalArgumentException Wenn der Text nicht in Messages umgewandelt werden kann
+     */
+    public static List<Message> decodeAll(CharSequence text) {
+        if (text == null) throw new IllegalArgumentException("string cannot pe parsed into a message object");
+        Parser parser = new Parser(text);
+        List<Message> messages;
+        if (parser.consume('[')) {
+            messages = new ArrayList<>();
+            if (!parser.consume(']')) {
+                do messages.add(parser.message()); while (parser.consume(','));
+                parser.expect(']');
+            }
+        } else messages = List.of(parser.message());
+        parser.end();
+        return messages;
+    }
+
+    /**
+     * Kodiert eine Message in das Binärformat
+     *
+     * @param message zu kodierende Message
+     * @return ein Puffer mit der kodierten Message, bereit zum Lesen
+     * @throws IllegalArgumentException Wenn der User oder Empfänger länger als 65535 Bytes ist
+     */
+    public static ByteBuffer encodeBinary(Message message) {
+        byte[] user = message.user().getBytes(StandardCharsets.UTF_8);
+        byte[] content = message.content().getBytes(StandardCharsets.UTF_8);
+        boolean direct = message.action() == Message.Action.DIRECT;
+        byte[] recipient = direct ? message.recipient().getBytes(StandardCharsets.UTF_8) : null;
+        if (user.length > 0xFFFF || direct && recipient.length > 0xFFFF) {
+            throw new IllegalArgumentException("user too long for binary format");
+        }
+        boolean hasId = message.id() != 0;
+        ByteBuffer out = ByteBuffer.allocate(7 + (hasId ? 8 : 0) + user.length + content.length + (direct ? 2 + recipient.length : 0))
+                .put((byte) (message.action().code() | (hasId ? HAS_ID : 0)));
+        if (hasId) out.putLong(message.id());
+        out.putShort((short) user.length).put(user)
+                .putInt(content.length).put(content);
+        if (direct) out.putShort((short) recipient.length).put(recipient);
+        return out.flip();
+    }
+
+    /**
+     * Dekodiert genau eine Message im Binärformat ab der aktuellen Position des Puffers;
+     * die Position steht danach hinter der Message
+     *
+     * @param buffer zu dekodierende Daten
+     * @return die dekodierte Message
+     * @throws IllegalArgumentException Wenn die Daten nicht in eine Message umgewandelt werden können
+     */
+    public static Message decodeBinary(ByteBuffer buffer) {
+        try {
+            int head = buffer.get();
+            Message.Action action = Message.Action.getFromCode((byte) (head & ~HAS_ID));
+            long id = (head & HAS_ID) != 0 ? buffer.getLong() : 0;
+            String user = utf8(buffer, Short.toUnsignedInt(buffer.getShort()));
+            String content = utf8(buffer, buffer.getInt());
+            String recipient = action == Message.Action.DIRECT ? utf8(buffer, Short.toUnsignedInt(buffer.getShort())) : "";
+            return new Message(action, user, content, recipient, id);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("buffer cannot be parsed into a message object", e);
+        }
+    }
+
+    /**
+     * Kodiert mehrere Messages hintereinander in das Binärformat
+     *
+     * @param messages zu kodierende Messages
+     * @return ein Puffer mit den kodierten Messages, bereit zum Lesen
+     */
+    public static ByteBuffer encodeBinary(List<Message> messages) {
+        ByteBuffer[] parts = new ByteBuffer[messages.size()];
+        int size = 0;
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = encodeBinary(messages.get(i));
+            size += parts[i].remaining();
+        }
+        ByteBuffer out = ByteBuffer.allocate(size);
+        for (ByteBuffer part : parts) out.put(part);
+        return out.flip();
+    }
+
+    /**
+     * Dekodiert alle hintereinander liegenden Messages im Binärformat bis zum Ende des Puffers
+     *
+     * @param buffer zu dekodierende Daten
+     * @return die dekodierten Messages in ihrer Reihenfolge
+     * @throws IllegalArgumentException Wenn die Daten nicht in Messages umgewandelt werden können
+     */
+    public static List<Message> decodeAllBinary(ByteBuffer buffer) {
+        Message first = decodeBinary(buffer);
+        if (!buffer.hasRemaining()) return List.of(first);
+        List<Message> messages = new ArrayList<>();
+        messages.add(first);
+        while (buffer.hasRemaining()) messages.add(decodeBinary(buffer));
+        return messages;
+    }
+
+    /**
+     * Prüft, ob eine binäre Nachricht ein Teil eines Anhangs ist; die Position des Puffers bleibt unverändert
+     *
+     * @param buffer empfangene Nachricht
+     * @return true für einen {@link Chunk}, false für Messages
+     */
+    public static boolean isChunk(ByteBuffer buffer) {
+        return buffer.hasRemaining() && buffer.get(buffer.position()) == CHUNK;
+    }
+
+    /**
+     * Kodiert den Kopf eines Teils: das Byte 0, die Art als ein Byte, die ID und die Position mit je 8 Byte,
+     * bei {@link Chunk.Kind#START} danach <code>user</code> und <code>name</code> mit je 2 Byte Länge.
+     * Die Daten eines {@link Chunk.Kind#DATA}-Teils gehören nicht zum Kopf; sie folgen ihm direkt
+     * und können so ohne Kopie als zweites Fragment derselben Nachricht gesendet werden.
+     *
+     * @param chunk zu kodierender Teil
+     * @return ein Puffer mit dem Kopf, bereit zum Lesen
+     * @throws IllegalArgumentException Wenn Absender oder Dateiname länger als 65535 Bytes sind
+     */
+    public static ByteBuffer encodeChunkHeader(Chunk chunk) {
+        boolean start = chunk.kind() == Chunk.Kind.START;
+        byte[] user = start ? chunk.user().getBytes(StandardCharsets.UTF_8) : null;
+        byte[] name = start ? chunk.name().getBytes(StandardCharsets.UTF_8) : null;
+        if (start && (user.length > 0xFFFF || name.length > 0xFFFF)) {
+            throw new IllegalArgumentException("user or name too long for binary format");
+        }
+        ByteBuffer out = ByteBuffer.allocate(DATA_HEADER + (start ? 4 + user.length + name.length : 0))
+                .put(CHUNK).put(chunk.kind().code())
+                .putLong(chunk.attachment()).putLong(chunk.position());
+        if (start) out.putShort((short) user.length).put(user).putShort((short) name.length).put(name);
+        return out.flip();
+    }
+
+    /**
+     * Kodiert einen Teil samt Daten in einen einzigen Puffer
+     *
+     * @param chunk zu kodierender Teil
+     * @return ein Puffer mit dem Teil, bereit zum Lesen
+     * @see #encodeChunkHeader(Chunk)
+     */
+    public static ByteBuffer encodeChunk(Chunk chunk) {
+        ByteBuffer header = encodeChunkHeader(chunk);
+        if (!chunk.data().hasRemaining()) return header;
+        return ByteBuffer.allocate(header.remaining() + chunk.data().remaining())
+                .put(header).put(chunk.data().duplicate()).flip();
+    }
+
+    /**
+     * Dekodiert einen Teil eines Anhangs; die Daten sind dabei eine Sicht auf den übergebenen Puffer
+     *
+     * @param buffer empfangene Nachricht, für welche {@link #isChunk(ByteBuffer)} gilt
+     * @return der dekodierte Teil
+     * @throws IllegalArgumentException Wenn die Daten nicht in einen Teil umgewandelt werden können
+     */
+    public static Chunk decodeChunk(ByteBuffer buffer) {
+        try {
+            if (buffer.get() != CHUNK) throw new IllegalArgumentException("buffer is not a chunk");
+            Chunk.Kind kind = Chunk.Kind.getFromCode(buffer.get());
+            long attachment = buffer.getLong();
+            long position = buffer.getLong();
+            return switch (kind) {
+                case START -> {
+                    String user = utf8(buffer, Short.toUnsignedInt(buffer.getShort()));
+                    yield Chunk.start(attachment, user, utf8(buffer, Short.toUnsignedInt(buffer.getShort())), position);
+                }
+                case DATA -> Chunk.data(attachment, position, buffer.slice());
+                case END -> Chunk.end(attachment, position);
+                case ABORT -> Chunk.abort(attachment);
+            };
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("buffer cannot be parsed into a chunk", e);
+        }
+    }
+
+    private static String utf8(ByteBuffer buffer, int length) {
+        if (length < 0 || length > buffer.remaining()) throw new BufferUnderflowException();
+        String value;
+        if (buffer.hasArray()) {
+            value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(buffer.position(), bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    /**
+     * Hängt eine Zeichenkette als JSON-String samt Anführungszeichen an
+     *
+     * @param value anzuhängende Zeichenkette
+     * @param out   Ziel der Kodierung
+     * @return der übergebene StringBuilder
+     */
+    public static StringBuilder quote(String value, StringBuilder out) {
+        out.append('"');
+        escape(value, out);
+        return out.append('"');
+    }
+
+    private static void escape(String value, StringBuilder out) {
+        int first = 0;
+        int len = value.length();
+        while (first < len) {
+            char c = value.charAt(first);
+            if (c < 0x20 || c == '"' || c == '\\') break;
+            first++;
+        }
+        if (first == len) { // Normalfall: nichts zu maskieren, ganzer String auf einmal
+            out.append(value);
+            return;
+        }
+        out.append(value, 0, first);
+        int start = first;
+        for (int i = first; i < len; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') continue;
+            out.append(value, start, i);
+            start = i + 1;
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                default -> out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+            }
+        }
+        out.append(value, start, len);
+    }
+
+    /**
+     * Einfacher Parser, welcher den Text genau einmal von links nach rechts liest
+     */
+    private static final class Parser {
+        private final CharSequence text;
+        private int pos;
+
+        Parser(CharSequence text) {
+            this.text = text;
+        }
+
+        Message message() {
+            Message.Action action = null;
+            String user = null;
+            String content = null;
+            String recipient = "";
+            long id = 0;
+            expect('{');
+            if (!consume('}')) do {
+                int key = stringStart();
+                int keyEnd = stringEnd(key);
+                expect(':');
+                if (isKey(key, keyEnd, "action")) action = action();
+                else if (isKey(key, keyEnd, "user")) user = string();
+                else if (isKey(key, keyEnd, "message")) content = string();
+                else if (isKey(key, keyEnd, "to")) recipient = string();
+                else if (isKey(key, keyEnd, "id")) id = number();
+                else skipValue();
+            } while (consume(','));
+            expect('}');
+            if (action == null || user == null || content == null) throw error();
+            return new Message(action, user, content, recipient, id);
+        }
+
+        void end() {
+            skipWhitespace();
+            if (pos != text.length()) throw error();
+        }
+
+        private Message.Action action() {
+            int start = stringStart();
+            int end = stringEnd(start);
+            for (Message.Action action : ACTIONS) {
+                if (isKey(start, end, action.name())) return action;
+            }
+            throw new IllegalArgumentException("string cannot be parsed into an action object");
+        }
+
+        /**
+         * Liest einen String; ohne Escape-Sequenzen wird dieser direkt aus dem Text geschnitten
+         */
+        private String string() {
+            int start = stringStart();
+            for (int i = start, len = text.length(); i < len; i++) {
+                char c = text.charAt(i);
+                if (c == '"') {
+                    pos = i + 1;
+                    return text.subSequence(start, i).toString();
+                }
+                if (c == '\\') return unescape(start, i);
+                if (c < 0x20) throw error();
+            }
+            throw error();
+        }
+
+        private String unescape(int start, int escape) {
+            StringBuilder sb = new StringBuilder(escape - start + 16).append(text, start, escape);
+            int i = escape;
+            int len = text.length();
+            while (i < len) {
+                char c = text.charAt(i++);
+                if (c == '"') {
+                    pos = i;
+                    return sb.toString();
+                }
+                if (c < 0x20) throw error();
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (i >= len) break;
+                switch (text.charAt(i++)) {
+                    case '"' -> sb.append('"');
+                    case '\\' -> sb.append('\\');
+                    case '/' -> sb.append('/');
+                    case 'b' -> sb.append('\b');
+                    case 'f' -> sb.append('\f');
+                    case 'n' -> sb.append('\n');
+                    case 'r' -> sb.append('\r');
+                    case 't' -> sb.append('\t');
+                    case 'u' -> {
+                        if (i + 4 > len) throw error();
+                        int code = 0;
+                        for (int end = i + 4; i < end; i++) code = (code << 4) | hex(text.charAt(i));
+                        sb.append((char) code);
+                    }
+                    default -> throw error();
+                }
+            }
+            throw error();
+        }
+
+        /**
+         * Liest eine ganze Zahl ohne Vorzeichen oder mit Minus
+         */
+        private long number() {
+            skipWhitespace();
+            boolean negative = pos < text.length() && text.charAt(pos) == '-';
+            if (negative) pos++;
+            int start = pos;
+            long value = 0;
+            try {
+                for (char c; pos < text.length() && (c = text.charAt(pos)) >= '0' && c <= '9'; pos++) {
+                    value = Math.addExact(Math.multiplyExact(value, 10), c - '0');
+                }
+            } catch (ArithmeticException e) {
+                throw error();
+            }
+            if (start == pos) throw error();
+            return negative ? -value : value;
+        }
+
+        /**
+         * Überspringt einen Wert eines unbekannten Feldes; erlaubt sind Strings und Zahlen
+         */
+        private void skipValue() {
+            skipWhitespace();
+            if (pos < text.length() && text.charAt(pos) == '"') {
+                string();
+                return;
+            }
+            int start = pos;
+            while (pos < text.length() && "+-.0123456789eE".indexOf(text.charAt(pos)) >= 0) pos++;
+            if (start == pos) throw error();
+        }
+
+        /**
+         * @return Position des ersten Zeichens nach dem öffnenden Anführungszeichen
+         */
+        private int stringStart() {
+            expect('"');
+            return pos;
+        }
+
+        /**
+         * Sucht das Ende eines Strings ohne Escape-Sequenzen (Schlüssel und Aktionen)
+         *
+         * @return Position des schließenden Anführungszeichens
+         */
+        private int stringEnd(int start) {
+            for (int i = start, len = text.length(); i < len; i++) {
+                char c = text.charAt(i);
+                if (c == '"') {
+                    pos = i + 1;
+                    return i;
+                }
+                if (c == '\\' || c < 0x20) throw error();
+            }
+            throw error();
+        }
+
+        private boolean isKey(int start, int end, String key) {
+            if (end - start != key.length()) return false;
+            for (int i = 0; i < key.length(); i++) {
+                if (text.charAt(start + i) != key.charAt(i)) return false;
+            }
+            return true;
+        }
+
+        void expect(char c) {
+            if (!consume(c)) throw error();
+        }
+
+        boolean consume(char c) {
+            skipWhitespace();
+            if (pos < text.length() && text.charAt(pos) == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void skipWhitespace() {
+            while (pos < text.length()) {
+                char c = text.charAt(pos);
+                if (c != ' ' && c != '\t' && c != '\n' && c != '\r') return;
+                pos++;
+            }
+        }
+
+        private int hex(char c) {
+            if (c >= '0' && c <= '9') return c - '0';
+            if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+            if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+            throw error();
+        }
+
+        private IllegalArgumentException error() {
+            return new IllegalArgumentException("string cannot pe parsed into a message object");
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package de.medieninformatik.loadtest;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Nebenläufiges Histogramm für Latenzen in Nanosekunden mit logarithmisch-linearen
+ * Klassen (32 Klassen pro Zweierpotenz, relativer Fehler höchstens etwa 3 %).
+ * Das Erfassen eines Wertes erzeugt keine Objekte.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Erfasst eine Latenz
+     *
+     * @param nanos Latenz; negative Werte werden als 0 gezählt
+     */
+    void record(long nanos) {
+        nanos = Math.max(0, nanos);
+        counts.getAndIncrement(index(nanos));
+        max.accumulate(nanos);
+    }
+
+    private static int index(long value) {
+        if (value < SUB_COUNT) return (int) value;
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    private static long middle(int index) {
+        if (index < SUB_COUNT) return index;
+        int shift = index / SUB_COUNT - 1;
+        long lower = (SUB_COUNT + (long) (index % SUB_COUNT)) << shift;
+        return lower + ((1L << shift) >> 1);
+    }
+
+    /**
+     * @return Anzahl der erfassten Latenzen
+     */
+    long count() {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) total += counts.get(i);
+        return total;
+    }
+
+    /**
+     * @return größte erfasste Latenz
+     */
+    long max() {
+        return max.get();
+    }
+
+    /**
+     * Liefert das Perzentil als Mitte der Klasse, in welcher es liegt
+     *
+     * @param percentile Perzentil zwischen 0 und 100
+     * @return Latenz des Perzentils oder 0, wenn keine Latenzen erfasst wurden
+     */
+    long percentile(double percentile) {
+        long[] copy = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) total += copy[i] = counts.get(i);
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += copy[i];
+            if (seen >= rank) return Math.min(max.get(), middle(i));
+        }
+        return max.get();
+    }
+}
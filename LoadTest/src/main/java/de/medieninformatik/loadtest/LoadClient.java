@@ -0,0 +1,126 @@
+package de.medieninformatik.loadtest;
+
+import de.medieninformatik.common.Message;
+import de.medieninformatik.common.MessageCodec;
+import jakarta.websocket.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+
+/**
+ * Ein simulierter Client ohne Oberfläche.
+ * Wie der <code>ClientEndpoint</code> des JavaFX-Clients nutzt er den
+ * WebSocket-Client von Tomcat und bietet das Binärformat an; jede empfangene
+ * Message der eigenen Messung wird an die {@link Stats} gemeldet.
+ */
+@ClientEndpoint(subprotocols = MessageCodec.BINARY_SUBPROTOCOL)
+public class LoadClient {
+    private final String user;
+    private final String tag;
+    private final String padding;
+    private final Stats stats;
+    private Session session;
+    private boolean binary;
+
+    /**
+     * Konstruktor
+     *
+     * @param user    Name des simulierten Users
+     * @param tag     Kennung des Laufs; nur Messages mit dieser Kennung werden gemessen
+     * @param padding Auffüllung, welche jeder Message angehängt wird
+     * @param stats   Sammelstelle der Messwerte
+     */
+    LoadClient(String user, String tag, String padding, Stats stats) {
+        this.user = user;
+        this.tag = tag;
+        this.padding = padding;
+        this.stats = stats;
+    }
+
+    /**
+     * Verbindet den Client mit dem Server
+     *
+     * @param container WebSocket-Container von Tomcat
+     * @param uri       Server URL
+     * @param binary    true, wenn das Binärformat genutzt werden soll, sofern der Server es unterstützt
+     * @throws IOException         Wenn die Verbindung nicht aufgebaut werden kann
+     * @throws DeploymentException Wenn der Endpunkt ungültig ist
+     */
+    void connect(WebSocketContainer container, URI uri, boolean binary) throws IOException, DeploymentException {
+        session = binary
+                ? container.connectToServer(this, uri)
+                : container.connectToServer(new TextOnly(this), ClientEndpointConfig.Builder.create().build(), uri);
+        this.binary = MessageCodec.BINARY_SUBPROTOCOL.equals(session.getNegotiatedSubprotocol());
+    }
+
+    /**
+     * Sendet eine Message, deren Inhalt mit dem geplanten Sendezeitpunkt beginnt
+     *
+     * @param scheduled geplanter Sendezeitpunkt nach {@link System#nanoTime()}
+     */
+    void send(long scheduled) {
+        Message message = new Message(Message.Action.SEND, user, tag + scheduled + ':' + padding);
+        try {
+            if (binary) session.getBasicRemote().sendBinary(MessageCodec.encodeBinary(message));
+            else session.getBasicRemote().sendText(MessageCodec.encode(message));
+            stats.sent();
+        } catch (IOException | IllegalStateException e) {
+            stats.sendFailed();
+        }
+    }
+
+    /**
+     * Trennt die Verbindung
+     */
+    void close() {
+        try {
+            if (session != null) session.close();
+        } catch (IOException ignored) {
+            // der Server wird ohnehin beendet oder ist nicht erreichbar
+        }
+    }
+
+    /**
+     * @param session nicht benutzt
+     * @param msg     eingehende Message(s) im Textformat
+     */
+    @OnMessage
+    public void onMessage(Session session, String msg) {
+        long now = System.nanoTime();
+        for (Message message : MessageCodec.decodeAll(msg)) received(message, now);
+    }
+
+    /**
+     * @param session nicht benutzt
+     * @param msg     eingehende Message(s) im Binärformat
+     */
+    @OnMessage
+    public void onMessage(Session session, ByteBuffer msg) {
+        long now = System.nanoTime();
+        for (Message message : MessageCodec.decodeAllBinary(msg)) received(message, now);
+    }
+
+    private void received(Message message, long now) {
+        String content = message.content();
+        if (message.action() != Message.Action.SEND || !content.startsWith(tag)) return; // z.B. Verlauf früherer Läufe
+        int end = content.indexOf(':', tag.length());
+        stats.delivered(now - Long.parseLong(content, tag.length(), end, 10));
+    }
+
+    /**
+     * Endpunkt ohne Subprotokoll, damit auch das Textformat gemessen werden kann
+     */
+    public static class TextOnly extends Endpoint {
+        private final LoadClient client;
+
+        TextOnly(LoadClient client) {
+            this.client = client;
+        }
+
+        @Override
+        public void onOpen(Session session, EndpointConfig config) {
+            session.addMessageHandler(String.class, msg -> client.onMessage(session, msg));
+        }
+    }
+}
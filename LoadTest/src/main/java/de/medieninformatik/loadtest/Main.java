@@ -0,0 +1,164 @@
+package de.medieninformatik.loadtest;
+
+import jakarta.websocket.ContainerProvider;
+import jakarta.websocket.WebSocketContainer;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lastgenerator für den Chat-Server ohne Oberfläche.
+ * <p>
+ * Öffnet viele gleichzeitige Sessions gegen einen lokal gestarteten Server,
+ * sendet von jeder Session mit fester Rate und misst die Zeit vom geplanten
+ * Senden bis zum Empfang bei jedem Mitglied des Raumes. Gemessen wird ab dem
+ * geplanten statt dem tatsächlichen Sendezeitpunkt, damit ein überlasteter Server
+ * die Latenz nicht dadurch schönt, dass die Clients langsamer senden.
+ * <p>
+ * Einstellungen als <code>--name=wert</code>, z.B.
+ * <code>gradle :LoadTest:run --args="--sessions=2000 --rooms=20 --rate=1"</code>:
+ * <ul>
+ *     <li><code>host</code>, <code>port</code>: Server (localhost, 8080)</li>
+ *     <li><code>sessions</code>: Anzahl der Sessions (1000)</li>
+ *     <li><code>rooms</code>: Anzahl der Räume, auf welche die Sessions verteilt werden (10)</li>
+ *     <li><code>rate</code>: Messages pro Sekunde und Session (1.0); liegt sie über <code>chat.rate.perSecond</code>
+ *     des Servers (20), verwirft dieser die überzähligen Messages, was sich als fehlende Zustellungen
+ *     statt als Latenz zeigt</li>
+ *     <li><code>size</code>: Länge des Inhalts einer Message in Zeichen (64)</li>
+ *     <li><code>binary</code>: Binärformat anbieten (true)</li>
+ *     <li><code>warmup</code>, <code>duration</code>: Dauer der Aufwärmphase und der Messung in Sekunden (5, 30)</li>
+ *     <li><code>connects</code>: maximale Anzahl gleichzeitiger Verbindungsaufbauten (200)</li>
+ * </ul>
+ */
+public class Main {
+    private static final String PREFIX = "lt:";
+
+    /**
+     * Privater Konstruktor; da eine Instanziierung nicht vonnöten ist
+     */
+    private Main() {
+    }
+
+    /**
+     * Führt einen Lasttest durch und gibt das Ergebnis aus
+     *
+     * @param args Einstellungen als <code>--name=wert</code>
+     * @throws InterruptedException Wenn der Test unterbrochen wird
+     */
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> settings = parse(args);
+        String host = settings.getOrDefault("host", "localhost");
+        int port = Integer.parseInt(settings.getOrDefault("port", "8080"));
+        int sessions = Integer.parseInt(settings.getOrDefault("sessions", "1000"));
+        int rooms = Integer.parseInt(settings.getOrDefault("rooms", "10"));
+        double rate = Double.parseDouble(settings.getOrDefault("rate", "1.0"));
+        int size = Integer.parseInt(settings.getOrDefault("size", "64"));
+        boolean binary = Boolean.parseBoolean(settings.getOrDefault("binary", "true"));
+        int warmup = Integer.parseInt(settings.getOrDefault("warmup", "5"));
+        int duration = Integer.parseInt(settings.getOrDefault("duration", "30"));
+        int connects = Integer.parseInt(settings.getOrDefault("connects", "200"));
+
+        String tag = PREFIX + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ":";
+        String padding = "x".repeat(Math.max(0, size - tag.length() - 20));
+        Stats stats = new Stats();
+        WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+        List<LoadClient> clients = new ArrayList<>(sessions);
+        AtomicInteger failed = new AtomicInteger();
+
+        System.out.printf("Verbinde %d Sessions in %d Räumen mit %s:%d ...%n", sessions, rooms, host, port);
+        long connectStart = System.nanoTime();
+        try (ExecutorService connector = Executors.newVirtualThreadPerTaskExecutor()) {
+            Semaphore permits = new Semaphore(connects);
+            for (int i = 0; i < sessions; i++) {
+                LoadClient client = new LoadClient("lt" + i, tag, padding, stats);
+                URI uri = URI.create("ws://%s:%d/Chat/chat/%s".formatted(host, port,
+                        URLEncoder.encode("loadtest-" + (i % rooms), StandardCharsets.UTF_8)));
+                connector.submit(() -> {
+                    permits.acquireUninterruptibly();
+                    try {
+                        client.connect(container, uri, binary);
+                        synchronized (clients) {
+                            clients.add(client);
+                        }
+                    } catch (Exception e) {
+                        failed.incrementAndGet();
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+        }
+        System.out.printf("%d verbunden, %d fehlgeschlagen in %.1f s%n",
+                clients.size(), failed.get(), (System.nanoTime() - connectStart) / 1e9);
+        if (clients.isEmpty()) return;
+
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long start = System.nanoTime();
+        long measureStart = start + TimeUnit.SECONDS.toNanos(warmup);
+        long end = measureStart + TimeUnit.SECONDS.toNanos(duration);
+        ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor();
+        for (LoadClient client : clients) {
+            long first = start + ThreadLocalRandom.current().nextLong(interval); // Sendezeitpunkte verteilen
+            senders.submit(() -> {
+                for (long next = first; next < end; next += interval) {
+                    parkUntil(next);
+                    client.send(next);
+                }
+            });
+        }
+
+        parkUntil(measureStart);
+        stats.next(); // Aufwärmphase verwerfen
+        for (int second = 1; second <= duration; second++) {
+            parkUntil(measureStart + TimeUnit.SECONDS.toNanos(second));
+            Stats.Window window = stats.current();
+            System.out.printf("%3d s: %,d gesendet, %,d zugestellt, p99 %.2f ms%n", second,
+                    window.sent.sum(), window.delivered.sum(), window.latency.percentile(99) / 1e6);
+        }
+        senders.shutdown();
+        senders.awaitTermination(5, TimeUnit.SECONDS);
+        Stats.Window result = stats.next();
+        double seconds = (System.nanoTime() - result.start) / 1e9;
+        Thread.sleep(1000); // noch unterwegs befindliche Messages zählen nicht mehr zur Messung
+        clients.forEach(LoadClient::close);
+        report(result, seconds);
+    }
+
+    private static void report(Stats.Window result, double seconds) {
+        LatencyHistogram latency = result.latency;
+        System.out.println();
+        System.out.printf("Dauer:          %.1f s%n", seconds);
+        System.out.printf("Gesendet:       %,d (%,.0f/s), %,d fehlgeschlagen%n",
+                result.sent.sum(), result.sent.sum() / seconds, result.sendFailed.sum());
+        System.out.printf("Zugestellt:     %,d (%,.0f/s)%n", result.delivered.sum(), result.delivered.sum() / seconds);
+        System.out.printf("Latenz in ms:   p50 %.2f | p90 %.2f | p99 %.2f | p99.9 %.2f | max %.2f%n",
+                latency.percentile(50) / 1e6, latency.percentile(90) / 1e6, latency.percentile(99) / 1e6,
+                latency.percentile(99.9) / 1e6, latency.max() / 1e6);
+    }
+
+    private static void parkUntil(long deadline) {
+        for (long wait; (wait = deadline - System.nanoTime()) > 0; ) LockSupport.parkNanos(wait);
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> settings = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 3) throw new IllegalArgumentException("expected --name=value: " + arg);
+            settings.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        return settings;
+    }
+}
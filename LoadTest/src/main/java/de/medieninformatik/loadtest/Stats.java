@@ -0,0 +1,58 @@
+package de.medieninformatik.loadtest;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sammelstelle der Messwerte aller simulierten Clients.
+ * Die Werte werden abschnittsweise erfasst, sodass z.B. die Aufwärmphase
+ * nicht in das Ergebnis eingeht, siehe {@link #next()}.
+ */
+final class Stats {
+    /**
+     * Messwerte eines Abschnitts
+     */
+    static final class Window {
+        final long start = System.nanoTime();
+        final LongAdder sent = new LongAdder();
+        final LongAdder sendFailed = new LongAdder();
+        final LongAdder delivered = new LongAdder();
+        final LatencyHistogram latency = new LatencyHistogram();
+    }
+
+    private volatile Window current = new Window();
+
+    /**
+     * Beginnt einen neuen Abschnitt
+     *
+     * @return der beendete Abschnitt
+     */
+    Window next() {
+        Window done = current;
+        current = new Window();
+        return done;
+    }
+
+    /**
+     * @return der laufende Abschnitt
+     */
+    Window current() {
+        return current;
+    }
+
+    void sent() {
+        current.sent.increment();
+    }
+
+    void sendFailed() {
+        current.sendFailed.increment();
+    }
+
+    /**
+     * @param latency Zeit vom geplanten Senden bis zum Empfang in Nanosekunden
+     */
+    void delivered(long latency) {
+        Window window = current;
+        window.delivered.increment();
+        window.latency.record(latency);
+    }
+}
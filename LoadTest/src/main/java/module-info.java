@@ -0,0 +1,5 @@
+module de.medieninformatik.loadtest {
+    requires de.medieninformatik.common;
+    requires org.apache.tomcat.embed.websocket;
+    exports de.medieninformatik.loadtest;
+}
@@ -0,0 +1,175 @@
+package de.medieninformatik.server;
+
+import de.medieninformatik.common.Chunk;
+import de.medieninformatik.common.Message;
+import de.medieninformatik.common.MessageCodec;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Leitet die Anhänge einer Session Teil für Teil an die übrigen Mitglieder ihres Raumes weiter.
+ * <p>
+ * Ein Anhang wird dabei nie als Ganzes gehalten: jeder empfangene {@link Chunk} wird einmal neu kodiert,
+ * um eine vom Server vergebene ID einzusetzen, und dann von allen Empfängern gemeinsam genutzt.
+ * Die Empfänger werden beim Beginn des Anhangs festgelegt, sodass niemand nur einen Teil davon erhält;
+ * in ihren {@link Outbox}en warten die Teile hinter allen Messages. Beim Absender wird stets der
+ * unter der Session angemeldete User eingesetzt. Anhänge werden weder gespeichert noch an andere
+ * Knoten weitergereicht, und nur Sessions im Binärformat können sie senden und empfangen.
+ * <p>
+ * Ein Anhang darf höchstens <code>chat.attachments.maxBytes</code> (64 MiB) groß sein; eine Session darf
+ * höchstens <code>chat.attachments.perSession</code> (2) gleichzeitig senden. Teile außerhalb der
+ * angekündigten Größe oder Reihenfolge brechen den Anhang ab, ebenso das Schließen der Session.
+ * Einen abgelehnten oder abgebrochenen Anhang erfährt der Absender durch eine NOTICE und ein
+ * {@link Chunk.Kind#ABORT} mit seiner eigenen ID. Mit <code>chat.attachments.maxBytes=0</code>
+ * werden alle Anhänge abgelehnt.
+ */
+final class Attachments {
+    private static final long MAX_BYTES = Config.getLong("attachments.maxBytes", 64 << 20);
+    private static final int MAX_UPLOADS = Math.max(1, Config.getInt("attachments.perSession", 2));
+    private static final AtomicLong IDS = new AtomicLong();
+    private static final Log.Event ATTACHMENT = Log.event("attachment", Log.Level.INFO, "session", "recipients", "bytes");
+
+    private final String session;
+    private final Outbox sender;
+    private final Rooms rooms;
+    private final Map<Long, Upload> uploads = new HashMap<>(); // guarded by this; ID des Absenders -> Anhang
+
+    /**
+     * Konstruktor
+     *
+     * @param session ID der Session, für das Log
+     * @param sender  Outbox der Session, welche die Anhänge sendet
+     * @param rooms   Räume, deren Mitglieder die Anhänge erhalten
+     */
+    Attachments(String session, Outbox sender, Rooms rooms) {
+        this.session = session;
+        this.sender = sender;
+        this.rooms = rooms;
+    }
+
+    /**
+     * Verarbeitet einen empfangenen Teil; fehlerhafte Teile werden ignoriert
+     *
+     * @param frame empfangene Nachricht, für welche {@link MessageCodec#isChunk(ByteBuffer)} gilt
+     */
+    void receive(ByteBuffer frame) {
+        Chunk chunk;
+        try {
+            chunk = MessageCodec.decodeChunk(frame.duplicate());
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        switch (chunk.kind()) {
+            case START -> start(chunk);
+            case DATA -> data(chunk);
+            case END, ABORT -> finish(chunk);
+        }
+    }
+
+    /**
+     * Bricht alle noch laufenden Anhänge ab, z.B. weil die Session geschlossen wurde
+     */
+    void abortAll() {
+        List<Upload> aborted;
+        synchronized (this) {
+            aborted = new ArrayList<>(uploads.values());
+            uploads.clear();
+        }
+        for (Upload upload : aborted) relay(upload, Chunk.abort(upload.id));
+    }
+
+    private void start(Chunk chunk) {
+        String user = sender.user();
+        Chunk announced = Chunk.start(IDS.incrementAndGet(), user == null ? "" : user, chunk.name(), chunk.position());
+        ByteBuffer encoded = MessageCodec.encodeChunk(announced).asReadOnlyBuffer();
+        List<Outbox> recipients = new ArrayList<>();
+        for (Outbox outbox : rooms.members(sender.room())) {
+            if (outbox != sender && outbox.binary()) recipients.add(outbox);
+        }
+        String problem;
+        synchronized (this) {
+            if (uploads.containsKey(chunk.attachment())) return;
+            if (MAX_BYTES <= 0) problem = "Anhänge sind abgeschaltet";
+            else if (user == null) problem = "Anhänge sind erst nach der Anmeldung möglich";
+            else if (chunk.position() < 0 || chunk.position() > MAX_BYTES) {
+                problem = "Anhänge dürfen höchstens %d Bytes groß sein".formatted(MAX_BYTES);
+            } else if (encoded.remaining() > MessageCodec.MAX_CHUNK) problem = "Der Dateiname ist zu lang";
+            else if (uploads.size() >= MAX_UPLOADS) problem = "Höchstens %d Anhänge gleichzeitig".formatted(MAX_UPLOADS);
+            else if (recipients.isEmpty()) problem = "Niemand im Raum kann Anhänge empfangen";
+            else {
+                problem = null;
+                uploads.put(chunk.attachment(), new Upload(announced.attachment(), chunk.position(), recipients));
+            }
+        }
+        if (problem != null) {
+            reject(chunk.attachment(), problem);
+            return;
+        }
+        ATTACHMENT.log(session, recipients.size(), chunk.position());
+        for (Outbox outbox : recipients) outbox.offerChunk(encoded, Chunk.Kind.START, announced.attachment());
+    }
+
+    private void data(Chunk chunk) {
+        int length = chunk.data().remaining();
+        Upload upload;
+        boolean valid;
+        synchronized (this) {
+            upload = uploads.get(chunk.attachment());
+            if (upload == null) return;
+            valid = chunk.position() == upload.received && upload.size - upload.received >= length;
+            if (valid) upload.received += length;
+            else uploads.remove(chunk.attachment());
+        }
+        if (!valid) {
+            relay(upload, Chunk.abort(upload.id));
+            reject(chunk.attachment(), "Der Anhang war fehlerhaft und wurde abgebrochen");
+            return;
+        }
+        Metrics.attachment(length);
+        relay(upload, Chunk.data(upload.id, chunk.position(), chunk.data()));
+    }
+
+    private void finish(Chunk chunk) {
+        Upload upload;
+        synchronized (this) {
+            upload = uploads.remove(chunk.attachment());
+        }
+        if (upload == null) return;
+        boolean complete = chunk.kind() == Chunk.Kind.END && upload.received == upload.size;
+        relay(upload, complete ? Chunk.end(upload.id, upload.size) : Chunk.abort(upload.id));
+    }
+
+    /**
+     * Kodiert einen Teil genau einmal und reiht ihn bei allen Empfängern ein
+     */
+    private static void relay(Upload upload, Chunk chunk) {
+        ByteBuffer encoded = MessageCodec.encodeChunk(chunk).asReadOnlyBuffer();
+        for (Outbox outbox : upload.recipients) outbox.offerChunk(encoded, chunk.kind(), upload.id);
+    }
+
+    private void reject(long attachment, String problem) {
+        sender.offer(new Frame(new Message(Message.Action.NOTICE, "", problem)));
+        sender.offerChunk(MessageCodec.encodeChunk(Chunk.abort(attachment)), Chunk.Kind.ABORT, attachment);
+    }
+
+    /**
+     * Ein laufender Anhang
+     */
+    private static final class Upload {
+        private final long id; // vom Server vergeben
+        private final long size;
+        private final List<Outbox> recipients;
+        private long received; // guarded by Attachments.this
+
+        Upload(long id, long size, List<Outbox> recipients) {
+            this.id = id;
+            this.size = size;
+            this.recipients = recipients;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package de.medieninformatik.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Transportweg zwischen den Knoten eines Clusters, siehe {@link Cluster}.
+ * <p>
+ * Ein Bus überträgt nur undurchsichtige Nachrichten von einem Knoten an alle anderen;
+ * Absender, Reihenfolge und Schleifen werden vom {@link Cluster} behandelt.
+ * Ein Bus muss die Nachrichten eines Absenders an einen Empfänger jedoch in der
+ * Reihenfolge von {@link #publish(ByteBuffer)} zustellen, darf sie aber verlieren.
+ * Eigene Implementierungen werden mit <code>chat.cluster.bus=voller.Klassenname</code>
+ * geladen und benötigen einen öffentlichen Konstruktor ohne Parameter.
+ */
+public interface Bus {
+    /**
+     * Empfänger der Nachrichten anderer Knoten
+     */
+    interface Listener {
+        /**
+         * Wird für jede empfangene Nachricht aufgerufen
+         *
+         * @param message die Nachricht; gehört danach dem Empfänger
+         */
+        void receive(ByteBuffer message);
+    }
+
+    /**
+     * Startet den Bus
+     *
+     * @param listener Empfänger der Nachrichten anderer Knoten
+     * @throws IOException Wenn der Bus nicht gestartet werden kann
+     */
+    void start(Listener listener) throws IOException;
+
+    /**
+     * Sendet eine Nachricht an alle anderen Knoten; darf nicht blockieren
+     *
+     * @param message die Nachricht; darf nicht verändert werden
+     */
+    void publish(ByteBuffer message);
+
+    /**
+     * Beendet den Bus
+     */
+    void close();
+}
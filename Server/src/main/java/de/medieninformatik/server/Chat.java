@@ -1,25 +1,73 @@
 package de.medieninformatik.server;
 
+import de.medieninformatik.common.Message;
+import de.medieninformatik.common.MessageCodec;
 import jakarta.websocket.*;
 import jakarta.websocket.server.ServerEndpoint;
 
-import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Set;
 
-@ServerEndpoint("/chat")
+/**
+ * WebSocket-Endpunkt des Servers.
+ * Jede Session gehört genau einem Raum an; Clients ohne Raumangabe
+ * landen im Raum {@link Rooms#DEFAULT_ROOM}, siehe auch {@link RoomChat}.
+ * Ist ein {@link Cluster} eingestellt, werden empfangene Messages zudem an die
+ * anderen Knoten weitergereicht.
+ * JOIN und LEAVE werden nicht an den Raum gesendet, sondern von {@link Presence} verarbeitet,
+ * sofern diese nicht abgeschaltet ist; ein LEAVE erhält nur der Absender zurück.
+ * Eine DIRECT-Message geht über das Verzeichnis von {@link Presence} nur an die Sessions
+ * des Empfängers und des Absenders, in einem Cluster auch an die auf anderen Knoten; sie wird nicht gespeichert.
+ * Gibt ein Client beim Verbinden mit <code>?after=&lt;seq&gt;</code> die zuletzt erhaltene
+ * Sequenznummer an, wird seine unterbrochene Session fortgesetzt, siehe {@link Replay};
+ * nur solche Sessions (für eine neue Session mit <code>?after=-1</code>) erhalten Sequenznummern.
+ * Messages mit einer ID werden dem Absender mit einem ACK bestätigt; eine Wiederholung
+ * einer bereits angenommenen Message wird nur erneut bestätigt, siehe {@link Dedup}.
+ * Sessions, deren {@link Heartbeat} ausbleibt, werden aus ihrem Raum entfernt und geschlossen.
+ * Anhänge kommen als einzelne binäre Teile zwischen den übrigen Messages an und werden
+ * Teil für Teil weitergeleitet, siehe {@link Attachments}.
+ */
+@ServerEndpoint(value = "/chat", subprotocols = MessageCodec.BINARY_SUBPROTOCOL)
 public class Chat {
-    private static final List<Session> connections = new CopyOnWriteArrayList<>();
+    private static final Rooms connections = new Rooms();
+    private static final Cluster cluster = Cluster.start(connections);
+    private static final Presence presence = Presence.start(connections, cluster);
+    private static final Dedup dedup = Dedup.start();
+    private static final Set<Message.Action> SERVER_ONLY =
+            EnumSet.of(Message.Action.NOTICE, Message.Action.ROSTER, Message.Action.PRESENCE,
+                    Message.Action.SEQ, Message.Action.ACK);
+    private static final String OUTBOX = Outbox.class.getName();
+    private static final String THROTTLE = Throttle.class.getName();
+    private static final String HEARTBEAT = Heartbeat.class.getName();
+    private static final String ATTACHMENTS = Attachments.class.getName();
+    private static final Log.Event OPEN = Log.event("open", Log.Level.INFO, "session", "room");
+    private static final Log.Event CLOSE = Log.event("close", Log.Level.INFO, "session");
+    private static final Log.Event MESSAGE = Log.event("message", Log.Level.DEBUG, "session", "messages");
+    private static final Log.Event ERROR = Log.event("error", Log.Level.WARN, "session", "error").limit(10);
 
     /**
-     * Startet die Session, wenn der Server geöffnet wird
+     * Startet die Session, wenn der Server geöffnet wird,
+     * und fügt sie dem über den Pfad gewählten Raum hinzu;
+     * eine unterbrochene Session erhält dabei die verpassten Messages
      *
      * @param session aktuelle Session
      */
     @OnOpen
     public void onOpen(Session session) {
-        System.out.printf("%s: called onOpen%n", session.getId());
-        connections.add(session);
+        String room = session.getPathParameters().getOrDefault("room", Rooms.DEFAULT_ROOM);
+        OPEN.log(session.getId(), room);
+        Outbox outbox = new Outbox(session, room, session.getRequestParameterMap().containsKey("after"));
+        session.getUserProperties().put(OUTBOX, outbox);
+        if (Throttle.enabled()) session.getUserProperties().put(THROTTLE, new Throttle(outbox));
+        Heartbeat heartbeat = Heartbeat.start(session, () -> expire(session));
+        if (heartbeat != null) session.getUserProperties().put(HEARTBEAT, heartbeat);
+        if (outbox.binary()) session.getUserProperties().put(ATTACHMENTS, new Attachments(session.getId(), outbox, connections));
+        connections.join(outbox, resumeAfter(session));
+        if (presence != null) presence.snapshot(outbox);
+        Metrics.sessions(1);
     }
 
     /**
@@ -29,42 +77,248 @@ public class Chat {
      */
     @OnClose
     public void onClose(Session session) {
-        System.out.printf("%s: called onClose%n", session.getId());
-        connections.remove(session);
+        CLOSE.log(session.getId());
+        release(session);
+    }
+
+    /**
+     * Entfernt eine Session, deren Herzschlag ausgeblieben ist, sofort aus ihrem Raum
+     * und schließt sie im Hintergrund
+     */
+    private static void expire(Session session) {
+        if (session.getUserProperties().get(OUTBOX) instanceof Outbox outbox) {
+            outbox.close(new CloseReason(CloseReason.CloseCodes.GOING_AWAY, "heartbeat timeout"));
+            Metrics.sessionExpired();
+        }
+        release(session);
+    }
+
+    private static void release(Session session) {
+        session.getUserProperties().remove(THROTTLE);
+        if (session.getUserProperties().remove(ATTACHMENTS) instanceof Attachments attachments) attachments.abortAll();
+        if (session.getUserProperties().remove(HEARTBEAT) instanceof Heartbeat heartbeat) heartbeat.stop();
+        if (session.getUserProperties().remove(OUTBOX) instanceof Outbox outbox) {
+            outbox.discard();
+            connections.leave(outbox);
+            if (presence != null) presence.offline(outbox);
+            Metrics.sessions(-1);
+        }
     }
 
     /**
      * Gibt bei einem Fehler eine Fehlermeldung aus,
-     * samt der fehlerhaften ID
+     * samt der fehlerhaften ID; höchstens 10 pro Sekunde, siehe {@link Log}
      * @param session aktuelle Session
      * @param error aufgetretener Fehler
      */
     @OnError
     public void onError(Session session, Throwable error) {
-        System.err.printf("%s: %s%n", session.getId(), error.getMessage());
+        ERROR.log(session.getId(), error.getMessage());
     }
 
     /**
-     * Sendet die einkommende Message an alle verbundenen Clients
-     * der Session
+     * Sendet die einkommende Message an alle Clients im Raum
+     * der Session; die Message wird dabei nur in die {@link Outbox}
+     * der jeweiligen Clients eingereiht, sodass ein langsamer Client
+     * den Broadcast nicht aufhält. Alle Clients teilen sich denselben {@link Frame}.
+     * Ein vom Client gebündeltes Array von Messages wird als ein Frame weitergegeben.
+     * Sendet die Session schneller als erlaubt, wird der Frame gemäß {@link Throttle} behandelt.
      *
      * @param session aktuelle Session
      * @param msg eingehende Message
      */
     @OnMessage
     public void onMessage(Session session, String msg) {
-        System.out.printf("%s: %s%n", session.getId(), msg);
-        connections.forEach(s -> {
-            try {
-                s.getBasicRemote().sendText(msg);
-            } catch (IOException e) {
-                connections.remove(s);
-                try {
-                    s.close();
-                } catch (IOException ex) {
-                    e.printStackTrace(System.err);
+        MESSAGE.log(session.getId(), msg);
+        seen(session);
+        List<Message> messages = MessageCodec.decodeAll(msg);
+        Metrics.received(messages.size());
+        if (!admit(session, messages)) return;
+        List<Message> fresh = withoutRepeats(session, messages);
+        List<Message> chat = forRoom(fresh);
+        if (chat == messages) broadcast(session, messages.size() == 1 ? new Frame(messages.get(0), msg) : Frame.of(messages));
+        else if (!chat.isEmpty()) broadcast(session, Frame.of(chat));
+        handlePersonal(session, fresh);
+        acknowledge(session, messages);
+    }
+
+    /**
+     * Sendet die einkommende(n) Message(s) im Binärformat an alle Clients im Raum der Session;
+     * Clients im Textformat erhalten dieselben Messages als Text.
+     * Ein Teil eines Anhangs wird stattdessen an {@link Attachments} übergeben
+     *
+     * @param session aktuelle Session
+     * @param msg eingehende Message(s) im Binärformat oder ein Teil eines Anhangs
+     */
+    @OnMessage
+    public void onMessage(Session session, ByteBuffer msg) {
+        if (MessageCodec.isChunk(msg)) {
+            seen(session);
+            if (session.getUserProperties().get(ATTACHMENTS) instanceof Attachments attachments) attachments.receive(msg);
+            return;
+        }
+        List<Message> messages = MessageCodec.decodeAllBinary(msg);
+        MESSAGE.log(session.getId(), messages);
+        seen(session);
+        Metrics.received(messages.size());
+        if (!admit(session, messages)) return;
+        List<Message> fresh = withoutRepeats(session, messages);
+        List<Message> chat = forRoom(fresh);
+        if (!chat.isEmpty()) broadcast(session, Frame.of(chat));
+        handlePersonal(session, fresh);
+        acknowledge(session, messages);
+    }
+
+    /**
+     * Vermerkt die Antwort einer Session auf einen Ping ihres {@link Heartbeat}s
+     *
+     * @param session aktuelle Session
+     * @param pong    nicht benutzt
+     */
+    @OnMessage
+    public void onPong(Session session, PongMessage pong) {
+        seen(session);
+    }
+
+    private static void seen(Session session) {
+        if (session.getUserProperties().get(HEARTBEAT) instanceof Heartbeat heartbeat) heartbeat.seen();
+    }
+
+    /**
+     * @return der Suchindex über alle Räume oder null, wenn nicht gesucht werden soll
+     */
+    static SearchIndex searchIndex() {
+        return connections.index();
+    }
+
+    /**
+     * @return die Sequenznummer aus dem Parameter <code>after</code> oder -1 für eine neue Session
+     */
+    private static long resumeAfter(Session session) {
+        List<String> after = session.getRequestParameterMap().get("after");
+        if (after == null || after.isEmpty()) return -1;
+        try {
+            return Math.max(-1, Long.parseLong(after.get(0)));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static boolean admit(Session session, List<Message> messages) {
+        if (messages.isEmpty()) return false;
+        for (Message message : messages) {
+            if (SERVER_ONLY.contains(message.action())) return false;
+        }
+        return !(session.getUserProperties().get(THROTTLE) instanceof Throttle throttle)
+                || throttle.admit(session.getId(), messages.size());
+    }
+
+    /**
+     * @return die Messages ohne Wiederholungen bereits angenommener; die übergebene Liste selbst, wenn es keine gibt
+     */
+    private static List<Message> withoutRepeats(Session session, List<Message> messages) {
+        if (dedup == null) return messages;
+        String joined = session.getUserProperties().get(OUTBOX) instanceof Outbox outbox ? outbox.user() : null;
+        List<Message> fresh = null;
+        for (int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            boolean repeat = message.id() != 0 && !dedup.first(joined != null ? joined : message.user(), message.id());
+            if (repeat && fresh == null) fresh = new ArrayList<>(messages.subList(0, i));
+            else if (!repeat && fresh != null) fresh.add(message);
+        }
+        if (fresh == null) return messages;
+        Metrics.duplicates(messages.size() - fresh.size());
+        return fresh;
+    }
+
+    /**
+     * Bestätigt dem Absender alle Messages mit einer ID in einem einzigen ACK
+     */
+    private static void acknowledge(Session session, List<Message> messages) {
+        StringBuilder ids = null;
+        for (Message message : messages) {
+            if (message.id() == 0) continue;
+            if (ids == null) ids = new StringBuilder(20 * messages.size());
+            else ids.append('\n');
+            ids.append(message.id());
+        }
+        if (ids != null && session.getUserProperties().get(OUTBOX) instanceof Outbox outbox) {
+            outbox.offer(new Frame(new Message(Message.Action.ACK, "", ids.toString())));
+        }
+    }
+
+    /**
+     * @return die Messages, welche an den ganzen Raum gehen; die übergebene Liste selbst, wenn es alle sind
+     */
+    private static List<Message> forRoom(List<Message> messages) {
+        List<Message> chat = null;
+        for (int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            boolean skip = switch (message.action()) {
+                case JOIN, LEAVE -> presence != null;
+                case DIRECT -> true;
+                default -> false;
+            };
+            if (skip && chat == null) chat = new ArrayList<>(messages.subList(0, i));
+            else if (!skip && chat != null) chat.add(message);
+        }
+        return chat == null ? messages : chat;
+    }
+
+    /**
+     * Verarbeitet An- und Abmeldungen sowie Direktnachrichten in ihrer Reihenfolge
+     */
+    private static void handlePersonal(Session session, List<Message> messages) {
+        if (!(session.getUserProperties().get(OUTBOX) instanceof Outbox outbox)) return;
+        for (Message message : messages) {
+            switch (message.action()) {
+                case JOIN -> {
+                    if (presence != null) presence.online(outbox, message.user());
+                }
+                case LEAVE -> {
+                    if (presence == null) break;
+                    presence.offline(outbox);
+                    outbox.offer(new Frame(message)); // der Client wartet auf sein LEAVE
+                }
+                case DIRECT -> direct(outbox, message);
+                default -> {
                 }
             }
-        });
+        }
+    }
+
+    /**
+     * Stellt eine Direktnachricht allen Sessions des Empfängers zu und allen Sessions des Absenders,
+     * damit dieser sie wie seine übrigen Nachrichten angezeigt bekommt, und reicht sie an die übrigen
+     * Knoten weiter; als Absender gilt dabei stets der unter der Session angemeldete User.
+     * Ist der Empfänger auf keinem Knoten angemeldet, erhält der Absender eine NOTICE.
+     */
+    private static void direct(Outbox sender, Message message) {
+        String user = sender.user();
+        if (presence == null || user == null) {
+            sender.offer(notice("Direktnachrichten sind erst nach der Anmeldung möglich"));
+            return;
+        }
+        if (presence.sessions(message.recipient()).isEmpty()
+                && (cluster == null || !presence.elsewhere(message.recipient()))) {
+            sender.offer(notice("%s ist nicht angemeldet".formatted(message.recipient())));
+            return;
+        }
+        Frame frame = new Frame(user.equals(message.user())
+                ? message
+                : new Message(Message.Action.DIRECT, user, message.content(), message.recipient()));
+        presence.deliver(frame, user, message.recipient());
+        if (cluster != null) cluster.publish(sender.room(), frame);
+    }
+
+    private static Frame notice(String text) {
+        return new Frame(new Message(Message.Action.NOTICE, "", text));
+    }
+
+    private static void broadcast(Session session, Frame frame) {
+        if (session.getUserProperties().get(OUTBOX) instanceof Outbox sender) {
+            connections.broadcast(sender.room(), frame);
+            if (cluster != null) cluster.publish(sender.room(), frame);
+        }
     }
 }
@@ -0,0 +1,141 @@
+package de.medieninformatik.server;
+
+import de.medieninformatik.common.Message;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Verbindet mehrere Server-Prozesse zu einem Cluster.
+ * <p>
+ * Jeder lokal empfangene Frame wird über einen {@link Bus} an alle anderen Knoten
+ * weitergereicht, welche ihn an ihre eigenen Sessions im gleichen Raum senden.
+ * Eine einzelne {@link Message.Action#ROSTER}-Message enthält dagegen die auf dem Ursprung angemeldeten
+ * User und wird an {@link Presence} übergeben; eine einzelne {@link Message.Action#DIRECT}-Message
+ * erhalten nur die lokalen Sessions ihres Empfängers und Absenders.
+ * Weitergereichte Frames werden nie erneut weitergereicht; zudem trägt jede Nachricht
+ * die Kennung ihres Ursprungs und eine fortlaufende Nummer, sodass eigene Nachrichten,
+ * Duplikate und überholte Nachrichten verworfen werden. Nachrichten desselben Ursprungs
+ * werden dadurch in ihrer Reihenfolge zugestellt.
+ * <p>
+ * Aufbau einer Nachricht: [u16 Länge][Ursprung][i64 Nummer][u16 Länge][Raum][i32 Anzahl][Messages im Binärformat].
+ * <p>
+ * Eingeschaltet wird der Cluster mit <code>chat.cluster.listen</code>; der Bus wird mit
+ * <code>chat.cluster.bus</code> gewählt (<code>tcp</code> für {@link TcpBus} oder ein Klassenname).
+ * Der Ursprung besteht aus <code>chat.cluster.node</code> (Standard: die eigene Adresse)
+ * und einer Zufallszahl, damit ein neu gestarteter Knoten wieder bei 0 beginnen kann.
+ * Mehrere Knoten auf einem Rechner, z.B.:
+ * <pre>
+ * --port=8080 --log.dir=log-a --cluster.listen=127.0.0.1:9101 --cluster.peers=127.0.0.1:9102
+ * --port=8081 --log.dir=log-b --cluster.listen=127.0.0.1:9102 --cluster.peers=127.0.0.1:9101
+ * </pre>
+ */
+final class Cluster {
+    private static final Log.Event FAILED = Log.event("clusterFailed", Log.Level.ERROR, "error");
+
+    private final Bus bus;
+    private final Rooms rooms;
+    private final String origin;
+    private final byte[] originBytes;
+    private final Map<String, long[]> lastSeen = new ConcurrentHashMap<>(); // Ursprung -> letzte Nummer
+    private volatile Presence presence;
+    private long sequence; // guarded by this
+
+    private Cluster(Bus bus, Rooms rooms, String node) {
+        this.bus = bus;
+        this.rooms = rooms;
+        this.origin = node + "#" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+        this.originBytes = origin.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Startet den Cluster entsprechend den Einstellungen
+     *
+     * @param rooms Räume, an deren Mitglieder weitergereichte Frames gesendet werden
+     * @return der Cluster oder null, wenn kein Cluster eingestellt ist oder er nicht gestartet werden konnte
+     */
+    static Cluster start(Rooms rooms) {
+        String listen = Config.getString("cluster.listen", "");
+        if (listen.isBlank()) return null;
+        try {
+            String type = Config.getString("cluster.bus", "tcp");
+            Bus bus = type.equals("tcp")
+                    ? new TcpBus()
+                    : (Bus) Class.forName(type).getConstructor().newInstance();
+            Cluster cluster = new Cluster(bus, rooms, Config.getString("cluster.node", listen));
+            bus.start(cluster::receive);
+            Runtime.getRuntime().addShutdownHook(new Thread(bus::close, "cluster-shutdown"));
+            return cluster;
+        } catch (IOException | ReflectiveOperationException | RuntimeException e) {
+            FAILED.log(e);
+            return null;
+        }
+    }
+
+    /**
+     * @param presence Verzeichnis, welches die Anwesenden der übrigen Knoten erhält
+     */
+    void presence(Presence presence) {
+        this.presence = presence;
+    }
+
+    /**
+     * Reicht einen lokal empfangenen Frame an alle anderen Knoten weiter; blockiert nicht
+     *
+     * @param room  Raum, in dem der Frame gesendet wurde
+     * @param frame der Frame
+     */
+    void publish(String room, Frame frame) {
+        ByteBuffer messages = frame.binary();
+        byte[] name = room.getBytes(StandardCharsets.UTF_8);
+        if (name.length > 0xFFFF) return;
+        ByteBuffer message = ByteBuffer.allocate(2 + originBytes.length + 8 + 2 + name.length + 4 + messages.remaining());
+        message.putShort((short) originBytes.length).put(originBytes);
+        int seqAt = message.position();
+        message.position(seqAt + 8);
+        message.putShort((short) name.length).put(name).putInt(frame.size()).put(messages).flip();
+        synchronized (this) { // Nummer und Reihenfolge auf dem Bus müssen übereinstimmen
+            message.putLong(seqAt, ++sequence);
+            bus.publish(message);
+        }
+    }
+
+    private void receive(ByteBuffer message) {
+        String from = string(message);
+        long seq = message.getLong();
+        String room = string(message);
+        int count = message.getInt();
+        ByteBuffer messages = message.slice();
+        if (from.equals(origin)) return; // eigene Nachricht
+        long[] last = lastSeen.computeIfAbsent(from, o -> new long[1]);
+        synchronized (last) { // zwei Verbindungen desselben Ursprungs, z.B. nach einem Neuaufbau
+            if (seq <= last[0]) return; // Duplikat oder überholt
+            last[0] = seq;
+            Frame frame = Frame.ofBinary(messages, count);
+            if (count == 1) {
+                Message only = frame.messages().get(0);
+                if (only.action() == Message.Action.ROSTER) { // nie an die Sessions, auch ohne Presence
+                    Presence directory = presence;
+                    if (directory != null) directory.remote(from, room, only.content());
+                    return;
+                }
+                if (only.action() == Message.Action.DIRECT) { // nie an den ganzen Raum
+                    Presence directory = presence;
+                    if (directory != null) directory.deliver(frame, only.user(), only.recipient());
+                    return;
+                }
+            }
+            rooms.broadcast(room, frame);
+        }
+    }
+
+    private static String string(ByteBuffer buffer) {
+        byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,95 @@
+package de.medieninformatik.server;
+
+import java.util.Locale;
+
+/**
+ * Utility-Klasse zum Auslesen der Server-Einstellungen.
+ * Alle Werte werden aus System-Properties mit dem Präfix <code>chat.</code> gelesen,
+ * z.B. <code>java -Dchat.outbox.capacity=512 ...</code>,
+ * oder von der Kommandozeile, z.B. <code>--outbox.capacity=512</code>, siehe {@link #load(String[])}.
+ */
+final class Config {
+    private static final String PREFIX = "chat.";
+
+    /**
+     * Privater Konstruktor; da eine Instanziierung nicht vonnöten ist
+     */
+    private Config() {
+    }
+
+    /**
+     * Übernimmt Einstellungen der Form <code>--name=wert</code> von der Kommandozeile
+     * als System-Properties <code>chat.name</code>; diese haben Vorrang vor bereits gesetzten.
+     * Muss vor dem ersten Zugriff auf eine Einstellung aufgerufen werden.
+     *
+     * @param args Argumente der Kommandozeile
+     * @throws IllegalArgumentException Wenn ein Argument nicht die Form <code>--name=wert</code> hat
+     */
+    static void load(String[] args) {
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 3) throw new IllegalArgumentException("expected --name=value: " + arg);
+            System.setProperty(PREFIX + arg.substring(2, eq), arg.substring(eq + 1));
+        }
+    }
+
+    /**
+     * Liest einen ganzzahligen Wert aus
+     *
+     * @param key Name der Einstellung ohne Präfix
+     * @param def Standardwert, falls die Einstellung nicht gesetzt ist
+     * @return der eingestellte Wert oder der Standardwert
+     */
+    static int getInt(String key, int def) {
+        return Integer.getInteger(PREFIX + key, def);
+    }
+
+    /**
+     * Liest einen ganzzahligen Wert aus, der größer als {@link Integer#MAX_VALUE} sein darf
+     *
+     * @param key Name der Einstellung ohne Präfix
+     * @param def Standardwert, falls die Einstellung nicht gesetzt ist
+     * @return der eingestellte Wert oder der Standardwert
+     */
+    static long getLong(String key, long def) {
+        return Long.getLong(PREFIX + key, def);
+    }
+
+    /**
+     * Liest einen Wahrheitswert aus
+     *
+     * @param key Name der Einstellung ohne Präfix
+     * @param def Standardwert, falls die Einstellung nicht gesetzt ist
+     * @return der eingestellte Wert oder der Standardwert
+     */
+    static boolean getBoolean(String key, boolean def) {
+        String value = System.getProperty(PREFIX + key);
+        return value == null || value.isBlank() ? def : Boolean.parseBoolean(value.trim());
+    }
+
+    /**
+     * Liest eine Zeichenkette aus
+     *
+     * @param key Name der Einstellung ohne Präfix
+     * @param def Standardwert, falls die Einstellung nicht gesetzt ist
+     * @return der eingestellte Wert oder der Standardwert
+     */
+    static String getString(String key, String def) {
+        return System.getProperty(PREFIX + key, def);
+    }
+
+    /**
+     * Liest einen Wert eines Enums aus; Groß- und Kleinschreibung wird ignoriert
+     *
+     * @param key  Name der Einstellung ohne Präfix
+     * @param def  Standardwert, falls die Einstellung nicht gesetzt ist
+     * @param <E>  Typ des Enums
+     * @return der eingestellte Wert oder der Standardwert
+     * @throws IllegalArgumentException Wenn der eingestellte Wert keine Konstante des Enums ist
+     */
+    static <E extends Enum<E>> E getEnum(String key, E def) {
+        String value = System.getProperty(PREFIX + key);
+        if (value == null || value.isBlank()) return def;
+        return Enum.valueOf(def.getDeclaringClass(), value.trim().toUpperCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,108 @@
+package de.medieninformatik.server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Erkennt wiederholt gesendete Messages an ihrer vom Client vergebenen ID, siehe
+ * {@link de.medieninformatik.common.Message#id()}.
+ * <p>
+ * Pro User werden die IDs seiner letzten <code>chat.dedup.window</code> (64) Messages samt Zeitpunkt
+ * in zwei <code>long</code>-Arrays gehalten, welche reihum überschrieben werden; eine Prüfung ist ein
+ * Durchlauf über diese Arrays und erzeugt keine Objekte. Eine ID, die älter als
+ * <code>chat.dedup.ttlMillis</code> (60000) ist, gilt nicht mehr als bekannt; die Einträge von Usern,
+ * die so lange nichts gesendet haben, werden regelmäßig entfernt.
+ * Mit <code>chat.dedup.window=0</code> ist die Erkennung abgeschaltet.
+ */
+final class Dedup {
+    private static final int WINDOW = Config.getInt("dedup.window", 64);
+    private static final long TTL_MILLIS = Math.max(1, Config.getLong("dedup.ttlMillis", 60_000));
+    private static final long TTL_NANOS = TimeUnit.MILLISECONDS.toNanos(TTL_MILLIS);
+    private static final Function<String, Window> NEW_WINDOW = user -> new Window();
+
+    private final Map<String, Window> users = new ConcurrentHashMap<>();
+
+    private Dedup() {
+    }
+
+    /**
+     * Startet die Erkennung, sofern sie nicht abgeschaltet ist
+     *
+     * @return die Erkennung oder null, wenn sie abgeschaltet ist
+     */
+    static Dedup start() {
+        if (WINDOW <= 0) return null;
+        Dedup dedup = new Dedup();
+        ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "dedup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(dedup::sweep, TTL_MILLIS, TTL_MILLIS, TimeUnit.MILLISECONDS);
+        return dedup;
+    }
+
+    /**
+     * Merkt sich die ID einer Message, sofern sie noch nicht bekannt ist
+     *
+     * @param user Name des Users, welcher die Message gesendet hat
+     * @param id   ID der Message; nicht 0
+     * @return true, wenn die ID neu ist; false für eine Wiederholung
+     */
+    boolean first(String user, long id) {
+        long now = System.nanoTime();
+        while (true) {
+            Window window = users.computeIfAbsent(user, NEW_WINDOW);
+            int result = window.add(id, now);
+            if (result >= 0) return result > 0;
+            users.remove(user, window); // gerade entfernt; mit einem neuen Fenster erneut versuchen
+        }
+    }
+
+    /**
+     * Entfernt die Fenster aller User, deren letzte ID abgelaufen ist; läuft im Thread "dedup"
+     */
+    private void sweep() {
+        long now = System.nanoTime();
+        users.forEach((user, window) -> {
+            if (window.retire(now)) users.remove(user, window);
+        });
+    }
+
+    /**
+     * Die letzten IDs eines Users
+     */
+    private static final class Window {
+        private final long[] ids = new long[WINDOW];
+        private final long[] times = new long[WINDOW];
+        private int next; // nächster zu überschreibender Platz
+        private boolean retired; // aus dem Verzeichnis entfernt; nimmt keine IDs mehr an
+
+        /**
+         * @return 1, wenn die ID neu ist; 0 für eine Wiederholung; -1, wenn das Fenster entfernt wurde
+         */
+        synchronized int add(long id, long now) {
+            if (retired) return -1;
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i] == id && now - times[i] < TTL_NANOS) return 0;
+            }
+            ids[next] = id;
+            times[next] = now;
+            next = next + 1 == ids.length ? 0 : next + 1;
+            return 1;
+        }
+
+        /**
+         * @return true, wenn die letzte ID abgelaufen ist; das Fenster nimmt dann keine IDs mehr an
+         */
+        synchronized boolean retire(long now) {
+            int last = next == 0 ? ids.length - 1 : next - 1;
+            retired = now - times[last] >= TTL_NANOS;
+            return retired;
+        }
+    }
+}
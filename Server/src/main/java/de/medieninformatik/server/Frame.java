@@ -0,0 +1,215 @@
+package de.medieninformatik.server;
+
+import de.medieninformatik.common.Message;
+import de.medieninformatik.common.MessageCodec;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unveränderliche, einmal kodierte Nachricht, welche beim Broadcast
+ * von allen {@link Outbox}en gemeinsam genutzt wird.
+ * <p>
+ * Text- und Binärformat werden erst bei Bedarf und dann genau einmal erzeugt;
+ * so können Clients beider Formate dieselbe Nachricht erhalten.
+ * Jede Session erhält nur eine eigene, schreibgeschützte Sicht
+ * auf denselben Puffer, sodass beim Fan-out weder pro Empfänger
+ * kodiert noch kopiert wird.
+ * <p>
+ * Ein Frame kann auch mehrere Messages bündeln, siehe {@link #batch(List)},
+ * oder bereits kodierte Messages übernehmen, siehe {@link #ofBinary(ByteBuffer)}.
+ */
+final class Frame {
+    private final Message message;
+    private final List<Frame> parts;
+    private final int size;
+    private volatile String text;
+    private volatile ByteBuffer binary;
+
+    /**
+     * Konstruktor; erzeugt einen Frame aus einer Message
+     *
+     * @param message Die Message; darf nicht null sein
+     */
+    Frame(Message message) {
+        this(message, null);
+    }
+
+    /**
+     * Konstruktor; erzeugt einen Frame aus einer Message, deren Textformat bereits bekannt ist
+     *
+     * @param message Die Message; darf nicht null sein
+     * @param text    Die Message im Textformat
+     */
+    Frame(Message message, String text) {
+        this.message = message;
+        this.parts = null;
+        this.size = 1;
+        this.text = text;
+    }
+
+    private Frame(List<Frame> parts) {
+        this.message = null;
+        this.parts = parts;
+        this.size = parts.size();
+    }
+
+    private Frame(ByteBuffer binary, int size) {
+        this.message = null;
+        this.parts = null;
+        this.size = size;
+        this.binary = binary.asReadOnlyBuffer();
+    }
+
+    /**
+     * Erzeugt einen Frame aus einer oder mehreren Messages
+     *
+     * @param messages Messages in ihrer Reihenfolge
+     * @return ein Frame mit allen Messages
+     */
+    static Frame of(List<Message> messages) {
+        return messages.size() == 1 ? new Frame(messages.get(0)) : batch(messages.stream().map(Frame::new).toList());
+    }
+
+    /**
+     * Erzeugt einen Frame aus einer oder mehreren bereits im Binärformat kodierten Messages;
+     * das Textformat wird erst bei Bedarf daraus dekodiert
+     *
+     * @param binary Messages im Binärformat; der Puffer darf danach nicht mehr verändert werden
+     * @param size   Anzahl der Messages im Puffer
+     * @return ein Frame mit allen Messages
+     */
+    static Frame ofBinary(ByteBuffer binary, int size) {
+        return new Frame(binary, size);
+    }
+
+    /**
+     * Bündelt mehrere Frames zu einem einzigen Frame; die bereits
+     * erzeugten Kodierungen der einzelnen Frames werden dabei wiederverwendet.
+     * Bereits gebündelte Frames werden dabei aufgelöst, sodass nie verschachtelt wird.
+     *
+     * @param frames zu bündelnde Frames in ihrer Reihenfolge
+     * @return ein Frame mit allen Messages
+     */
+    static Frame batch(List<Frame> frames) {
+        if (frames.size() == 1) return frames.get(0);
+        List<Frame> flat = new ArrayList<>(frames.size());
+        for (Frame frame : frames) {
+            if (frame.parts == null) flat.add(frame);
+            else flat.addAll(frame.parts);
+        }
+        return new Frame(List.copyOf(flat));
+    }
+
+    /**
+     * Bündelt aufeinanderfolgende Frames so, dass kein Bündel im Format des Empfängers länger ist als
+     * {@link MessageCodec#MAX_FRAME}; ein einzelner, längerer Frame wird allein gesendet
+     *
+     * @param frames zu bündelnde Frames in ihrer Reihenfolge
+     * @param binary true, wenn der Empfänger das Binärformat verwendet
+     * @return die Bündel in ihrer Reihenfolge; leer, wenn keine Frames übergeben wurden
+     */
+    static List<Frame> batches(List<Frame> frames, boolean binary) {
+        List<Frame> batches = new ArrayList<>();
+        List<Frame> batch = new ArrayList<>();
+        int length = 1; // öffnende Klammer des Arrays
+        for (Frame frame : frames) {
+            int next = frame.length(binary) + 1; // samt Komma bzw. schließender Klammer
+            if (!batch.isEmpty() && length + next > MessageCodec.MAX_FRAME) {
+                batches.add(batch(batch));
+                batch = new ArrayList<>();
+                length = 1;
+            }
+            batch.add(frame);
+            length += next;
+        }
+        if (!batch.isEmpty()) batches.add(batch(batch));
+        return batches;
+    }
+
+    /**
+     * @return Anzahl der Messages im Frame
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Gibt die Länge des Frames in einem Format zurück; dieses wird dafür bei Bedarf kodiert
+     *
+     * @param binary true für das Binärformat in Bytes, false für das Textformat in Zeichen
+     * @return die Länge des kodierten Frames
+     */
+    int length(boolean binary) {
+        return binary ? binary().remaining() : text().length();
+    }
+
+    /**
+     * Gibt die einzelnen Messages eines Bündels zurück
+     *
+     * @return die gebündelten Frames oder dieser Frame selbst
+     */
+    List<Frame> parts() {
+        return parts == null ? List.of(this) : parts;
+    }
+
+    /**
+     * Gibt die Messages des Frames zurück; bereits kodierte Messages werden dafür dekodiert
+     *
+     * @return die Messages in ihrer Reihenfolge
+     */
+    List<Message> messages() {
+        if (message != null) return List.of(message);
+        if (parts == null) return MessageCodec.decodeAllBinary(binary());
+        List<Message> messages = new ArrayList<>(parts.size());
+        for (Frame part : parts) messages.addAll(part.messages());
+        return messages;
+    }
+
+    /**
+     * Gibt die Message(s) im Textformat zurück; die Kodierung findet nur beim ersten Aufruf statt
+     *
+     * @return die Message als Text, bei einem Bündel als Array
+     */
+    String text() {
+        String value = text;
+        if (value == null) {
+            // mehrfaches Kodieren bei gleichzeitigem ersten Zugriff ist harmlos
+            if (message != null) value = MessageCodec.encode(message);
+            else if (parts == null) {
+                List<Message> messages = MessageCodec.decodeAllBinary(binary());
+                value = messages.size() == 1 ? MessageCodec.encode(messages.get(0)) : MessageCodec.encode(messages);
+            } else {
+                StringBuilder sb = new StringBuilder().append('[');
+                for (Frame part : parts) sb.append(part.text()).append(',');
+                sb.setCharAt(sb.length() - 1, ']');
+                value = sb.toString();
+            }
+            text = value;
+        }
+        return value;
+    }
+
+    /**
+     * Gibt die Message(s) im Binärformat zurück; die Kodierung findet nur beim ersten Aufruf statt
+     *
+     * @return eine eigene, schreibgeschützte Sicht auf den gemeinsamen Puffer
+     */
+    ByteBuffer binary() {
+        ByteBuffer buffer = binary;
+        if (buffer == null) {
+            if (parts == null) buffer = MessageCodec.encodeBinary(message);
+            else {
+                int size = 0;
+                for (Frame part : parts) size += part.binary().remaining();
+                buffer = ByteBuffer.allocate(size);
+                for (Frame part : parts) buffer.put(part.binary());
+                buffer.flip();
+            }
+            buffer = buffer.asReadOnlyBuffer();
+            binary = buffer;
+        }
+        return buffer.duplicate();
+    }
+}
@@ -0,0 +1,95 @@
+package de.medieninformatik.server;
+
+import jakarta.websocket.Session;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Herzschlag einer Session, an dem tote Verbindungen erkannt werden, bevor ein Senden an sie scheitert.
+ * <p>
+ * Ein gemeinsames {@link TimerWheel} prüft jede Session alle <code>chat.heartbeat.intervalMillis</code>
+ * (30000). Hat sie seitdem nichts empfangen lassen, erhält sie einen Ping; hat sie länger als
+ * <code>chat.heartbeat.timeoutMillis</code> (75000) weder eine Message noch einen Pong gesendet,
+ * wird sie entfernt. Sessions, die ohnehin senden, kosten so keinen Ping.
+ * Gesendet wird der Ping in {@link Threads#tasks()}, da das Senden eines Pings blockieren kann;
+ * der Thread des Rades selbst blockiert nie. Die Auflösung bestimmt <code>chat.heartbeat.tickMillis</code> (500).
+ * Mit <code>chat.heartbeat.intervalMillis=0</code> ist der Herzschlag abgeschaltet.
+ */
+final class Heartbeat extends TimerWheel.Timer implements Runnable {
+    private static final long INTERVAL_MILLIS = Config.getLong("heartbeat.intervalMillis", 30_000);
+    private static final long INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(INTERVAL_MILLIS);
+    private static final long TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(Config.getLong("heartbeat.timeoutMillis", 75_000));
+    private static final TimerWheel WHEEL = INTERVAL_MILLIS > 0
+            ? new TimerWheel("heartbeat", Config.getLong("heartbeat.tickMillis", 500), 1024)
+            : null;
+    private static final ByteBuffer PAYLOAD = ByteBuffer.allocate(0);
+    private static final Log.Event EXPIRED = Log.event("expired", Log.Level.INFO, "session", "silentMillis").limit(10);
+
+    private final Session session;
+    private final Runnable onTimeout;
+    private volatile long lastSeen = System.nanoTime();
+    private volatile boolean stopped;
+
+    private Heartbeat(Session session, Runnable onTimeout) {
+        this.session = session;
+        this.onTimeout = onTimeout;
+    }
+
+    /**
+     * Startet den Herzschlag einer Session, sofern er nicht abgeschaltet ist
+     *
+     * @param session   die Session
+     * @param onTimeout wird im Thread des Rades aufgerufen, wenn die Session zu lange nichts gesendet hat;
+     *                  darf nicht blockieren
+     * @return der Herzschlag oder null, wenn er abgeschaltet ist
+     */
+    static Heartbeat start(Session session, Runnable onTimeout) {
+        if (WHEEL == null) return null;
+        Heartbeat heartbeat = new Heartbeat(session, onTimeout);
+        WHEEL.schedule(heartbeat, INTERVAL_MILLIS);
+        return heartbeat;
+    }
+
+    /**
+     * Die Session hat eine Message oder einen Pong gesendet
+     */
+    void seen() {
+        lastSeen = System.nanoTime();
+    }
+
+    /**
+     * Beendet den Herzschlag, z.B. weil die Session geschlossen wurde
+     */
+    void stop() {
+        stopped = true;
+        WHEEL.cancel(this);
+    }
+
+    @Override
+    protected void expired() {
+        if (stopped) return;
+        long silent = System.nanoTime() - lastSeen;
+        if (silent >= TIMEOUT_NANOS) {
+            stopped = true;
+            EXPIRED.log(session.getId(), TimeUnit.NANOSECONDS.toMillis(silent));
+            onTimeout.run();
+            return;
+        }
+        if (silent >= INTERVAL_NANOS) Threads.tasks().execute(this);
+        WHEEL.schedule(this, INTERVAL_MILLIS);
+    }
+
+    /**
+     * Sendet den Ping; läuft in {@link Threads#tasks()}
+     */
+    @Override
+    public void run() {
+        try {
+            session.getAsyncRemote().sendPing(PAYLOAD.duplicate());
+        } catch (IOException | IllegalStateException e) {
+            // die Session ist bereits geschlossen oder bleibt stumm, bis sie abläuft
+        }
+    }
+}
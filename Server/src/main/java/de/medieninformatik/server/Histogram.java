@@ -0,0 +1,88 @@
+package de.medieninformatik.server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Nebenläufiges Histogramm mit logarithmisch-linearen Klassen nach dem Vorbild von HdrHistogram.
+ * <p>
+ * Werte unter 2^{@value #SUB_BITS} werden exakt gezählt; darüber wird jede Zweierpotenz in
+ * 2^{@value #SUB_BITS} gleich breite Klassen geteilt, sodass der relative Fehler eines
+ * Perzentils höchstens etwa 3 % beträgt. Das Erfassen eines Wertes ist ein einziges
+ * atomares Inkrement und erzeugt keine Objekte.
+ */
+final class Histogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Erfasst einen Wert
+     *
+     * @param value Wert; negative Werte werden als 0 gezählt
+     */
+    void record(long value) {
+        value = Math.max(0, value);
+        counts.getAndIncrement(index(value));
+        max.accumulate(value);
+    }
+
+    private static int index(long value) {
+        if (value < SUB_COUNT) return (int) value;
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    private static long lowerBound(int index) {
+        if (index < SUB_COUNT) return index;
+        int exponent = index / SUB_COUNT + SUB_BITS - 1;
+        long sub = index % SUB_COUNT;
+        return (SUB_COUNT + sub) << (exponent - SUB_BITS);
+    }
+
+    private static long width(int index) {
+        return index < SUB_COUNT ? 1 : 1L << (index / SUB_COUNT - 1);
+    }
+
+    /**
+     * Liefert eine Momentaufnahme der bisher erfassten Werte
+     *
+     * @return die Momentaufnahme
+     */
+    Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) total += copy[i] = counts.get(i);
+        return new Snapshot(copy, total, max.get());
+    }
+
+    /**
+     * Unveränderliche Momentaufnahme eines {@link Histogram}s
+     *
+     * @param counts Anzahl der Werte je Klasse
+     * @param count  Anzahl aller Werte
+     * @param max    größter Wert
+     */
+    record Snapshot(long[] counts, long count, long max) {
+        /**
+         * Liefert das Perzentil als Mitte der Klasse, in welcher es liegt
+         *
+         * @param percentile Perzentil zwischen 0 und 100
+         * @return Wert des Perzentils oder 0, wenn keine Werte erfasst wurden
+         */
+        long percentile(double percentile) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(max, lowerBound(i) + width(i) / 2);
+            }
+            return max;
+        }
+    }
+}
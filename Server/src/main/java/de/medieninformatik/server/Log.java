@@ -0,0 +1,263 @@
+package de.medieninformatik.server;
+
+import de.medieninformatik.common.MessageCodec;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchrones, strukturiertes Logging des Servers.
+ * <p>
+ * Jede Stelle, die etwas protokolliert, legt dafür ein {@link Event} mit Namen, Level und
+ * Feldnamen an. Beim Protokollieren werden nur Zeitpunkt und Werte in einen {@link RingBuffer}
+ * gelegt; Formatieren und Ausgeben übernimmt ein eigener Thread, welcher die Zeilen gesammelt
+ * auf <code>System.out</code> bzw. (ab {@link Level#WARN}) <code>System.err</code> schreibt.
+ * Ist der Puffer voll, werden Einträge verworfen und ihre Anzahl später gemeldet;
+ * ein Aufrufer wartet also nie auf die Konsole.
+ * <p>
+ * Eine Zeile hat die Form <code>2024-01-01T12:00:00Z INFO open session=0 room=lobby</code>.
+ * <p>
+ * Einstellungen:
+ * <ul>
+ *     <li><code>chat.logging.level</code>: niedrigstes ausgegebenes Level (INFO)</li>
+ *     <li><code>chat.logging.capacity</code>: Größe des Puffers (8192)</li>
+ *     <li><code>chat.logging.&lt;event&gt;.level</code>: Level eines einzelnen Events,
+ *     z.B. <code>--logging.message.level=info</code></li>
+ *     <li><code>chat.logging.&lt;event&gt;.sample</code>: nur etwa jedes n-te Vorkommen ausgeben (1)</li>
+ *     <li><code>chat.logging.&lt;event&gt;.perSecond</code>: höchstens so viele Vorkommen pro Sekunde
+ *     ausgeben; die übrigen werden beim nächsten ausgegebenen als <code>suppressed</code> gezählt</li>
+ * </ul>
+ */
+final class Log {
+    private static final Level LEVEL = Config.getEnum("logging.level", Level.INFO);
+    private static final RingBuffer<Entry> BUFFER = new RingBuffer<>(Config.getInt("logging.capacity", 8192));
+    private static final AtomicLong DROPPED = new AtomicLong();
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final int FLUSH_CHARS = 1 << 16;
+    private static final Event LOST = new Event("logging", Level.WARN, new String[]{"dropped"});
+
+    // nur innerhalb von drain() benutzt
+    private static final StringBuilder OUT = new StringBuilder();
+    private static final StringBuilder ERR = new StringBuilder();
+
+    private static final Thread WRITER = new Thread(Log::write, "logger");
+    private static volatile boolean stopping;
+    private static volatile boolean closed;
+
+    static {
+        WRITER.setDaemon(true);
+        WRITER.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::close, "log-shutdown"));
+    }
+
+    /**
+     * Privater Konstruktor; da eine Instanziierung nicht vonnöten ist
+     */
+    private Log() {
+    }
+
+    /**
+     * Legt ein Event an; üblicherweise als Konstante der protokollierenden Klasse
+     *
+     * @param name   Name des Events, zugleich Teil der Einstellungen <code>chat.logging.&lt;name&gt;.*</code>
+     * @param level  Level, sofern nicht anders eingestellt
+     * @param fields Namen der bis zu drei Werte
+     * @return das Event
+     */
+    static Event event(String name, Level level, String... fields) {
+        if (fields.length > 3) throw new IllegalArgumentException("at most 3 fields: " + name);
+        return new Event(name, Config.getEnum("logging." + name + ".level", level), fields);
+    }
+
+    /**
+     * Level eines Events
+     */
+    enum Level {
+        DEBUG, INFO, WARN, ERROR
+    }
+
+    /**
+     * Eine Art von Log-Eintrag; die Werte werden beim Protokollieren nicht formatiert
+     * und dürfen sich daher danach nicht mehr ändern
+     */
+    static final class Event {
+        private final String name;
+        private final Level level;
+        private final String[] fields;
+        private final boolean enabled;
+        private final int sample;
+        private int perSecond;
+        private final AtomicLong window = new AtomicLong(); // Sekunde << 32 | Anzahl
+        private final AtomicLong suppressed = new AtomicLong();
+
+        private Event(String name, Level level, String[] fields) {
+            this.name = name;
+            this.level = level;
+            this.fields = fields;
+            this.enabled = level.compareTo(LEVEL) >= 0;
+            this.sample = Math.max(1, Config.getInt("logging." + name + ".sample", 1));
+            this.perSecond = Config.getInt("logging." + name + ".perSecond", 0);
+        }
+
+        /**
+         * Begrenzt die Anzahl der Einträge pro Sekunde, sofern nicht anders eingestellt
+         *
+         * @param perSecond höchstens so viele Einträge pro Sekunde; 0 für unbegrenzt
+         * @return dieses Event
+         */
+        Event limit(int perSecond) {
+            this.perSecond = Config.getInt("logging." + name + ".perSecond", perSecond);
+            return this;
+        }
+
+        /**
+         * @return true, wenn Einträge dieses Events überhaupt ausgegeben werden
+         */
+        boolean enabled() {
+            return enabled;
+        }
+
+        /**
+         * Protokolliert einen Eintrag mit einem Wert
+         *
+         * @param a erster Wert
+         */
+        void log(Object a) {
+            log(a, null, null);
+        }
+
+        /**
+         * Protokolliert einen Eintrag mit zwei Werten
+         *
+         * @param a erster Wert
+         * @param b zweiter Wert
+         */
+        void log(Object a, Object b) {
+            log(a, b, null);
+        }
+
+        /**
+         * Protokolliert einen Eintrag mit drei Werten;
+         * eine {@link Throwable} wird ab {@link Level#ERROR} samt Stacktrace ausgegeben
+         *
+         * @param a erster Wert
+         * @param b zweiter Wert
+         * @param c dritter Wert
+         */
+        void log(Object a, Object b, Object c) {
+            if (!enabled) return;
+            if (sample > 1 && ThreadLocalRandom.current().nextInt(sample) != 0) return;
+            if (!permit()) return;
+            long skipped = perSecond > 0 ? suppressed.getAndSet(0) : 0;
+            publish(new Entry(this, System.currentTimeMillis(), a, b, c, skipped));
+        }
+
+        private boolean permit() {
+            if (perSecond <= 0) return true;
+            long second = (int) (System.nanoTime() / 1_000_000_000L);
+            while (true) {
+                long state = window.get();
+                long count = (state >>> 32) == (second & 0xFFFF_FFFFL) ? (int) state : 0;
+                if (count >= perSecond) {
+                    suppressed.incrementAndGet();
+                    return false;
+                }
+                if (window.compareAndSet(state, (second << 32) | (count + 1))) return true;
+            }
+        }
+    }
+
+    private record Entry(Event event, long time, Object a, Object b, Object c, long suppressed) {
+    }
+
+    private static void publish(Entry entry) {
+        if (!BUFFER.offer(entry)) DROPPED.incrementAndGet();
+        if (closed) drain(); // der Schreiber ist beendet
+    }
+
+    private static void write() {
+        while (!stopping) {
+            if (!drain()) LockSupport.parkNanos(IDLE_NANOS);
+        }
+        drain();
+    }
+
+    private static void close() {
+        stopping = true;
+        LockSupport.unpark(WRITER);
+        try {
+            WRITER.join(1000);
+        } catch (InterruptedException ignored) {
+            // der Rest wird unten ausgegeben
+        }
+        closed = true;
+        drain();
+    }
+
+    /**
+     * Gibt alle wartenden Einträge aus
+     *
+     * @return true, wenn mindestens ein Eintrag ausgegeben wurde
+     */
+    private static synchronized boolean drain() {
+        boolean any = false;
+        for (Entry entry; (entry = BUFFER.poll()) != null; ) {
+            any = true;
+            append(entry);
+            if (OUT.length() > FLUSH_CHARS || ERR.length() > FLUSH_CHARS) flush();
+        }
+        long dropped = DROPPED.getAndSet(0);
+        if (dropped > 0) append(new Entry(LOST, System.currentTimeMillis(), dropped, null, null, 0));
+        flush();
+        return any;
+    }
+
+    private static void append(Entry entry) {
+        Event event = entry.event;
+        StringBuilder line = event.level.compareTo(Level.WARN) >= 0 ? ERR : OUT;
+        line.append(Instant.ofEpochMilli(entry.time)).append(' ').append(event.level).append(' ').append(event.name);
+        Object[] values = {entry.a, entry.b, entry.c};
+        Throwable error = null;
+        for (int i = 0; i < event.fields.length; i++) {
+            line.append(' ').append(event.fields[i]).append('=');
+            value(values[i], line);
+            if (values[i] instanceof Throwable t) error = t;
+        }
+        if (entry.suppressed > 0) line.append(" suppressed=").append(entry.suppressed);
+        line.append(System.lineSeparator());
+        if (error != null && event.level == Level.ERROR) {
+            StringWriter trace = new StringWriter();
+            error.printStackTrace(new PrintWriter(trace));
+            line.append(trace);
+        }
+    }
+
+    private static void value(Object value, StringBuilder line) {
+        String text = String.valueOf(value);
+        boolean plain = !text.isEmpty();
+        for (int i = 0; plain && i < text.length(); i++) {
+            char c = text.charAt(i);
+            plain = c > ' ' && c != '"' && c != '=';
+        }
+        if (plain) line.append(text);
+        else MessageCodec.quote(text, line);
+    }
+
+    private static void flush() {
+        print(OUT, System.out);
+        print(ERR, System.err);
+    }
+
+    private static void print(StringBuilder text, PrintStream stream) {
+        if (text.isEmpty()) return;
+        stream.print(text);
+        stream.flush();
+        text.setLength(0);
+    }
+}
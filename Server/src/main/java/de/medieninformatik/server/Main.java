@@ -10,13 +10,16 @@ import java.io.IOException;
  */
 public class Main {
     /**
-     * Ruft die Start-Methode des Servers auf
+     * Ruft die Start-Methode des Servers auf.
+     * Einstellungen können als <code>--name=wert</code> übergeben werden,
+     * z.B. <code>--port=8080 --executor=virtual</code>; siehe {@link Config}.
      *
-     * @param args nicht benutzt
+     * @param args Einstellungen des Servers
      * @throws LifecycleException ignoriert
      * @throws IOException ignoriert
      */
     public static void main(String[] args) throws LifecycleException, IOException {
+        Config.load(args);
         Server.start();
     }
 }
@@ -0,0 +1,206 @@
+package de.medieninformatik.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Persistenter, nur anwachsender Verlauf eines Raumes.
+ * <p>
+ * Die Messages werden im Binärformat in {@link Segment}e geschrieben, welche
+ * in den Speicher abgebildet sind; ein Anhängen ist damit im Wesentlichen
+ * eine Kopie in den Page-Cache. Ist ein Segment voll, wird ein neues angelegt;
+ * alte Segmente werden nach Größe oder Alter des Logs gelöscht.
+ * Wann die Einträge auf die Platte geschrieben werden, bestimmt die {@link Sync}-Strategie.
+ * <p>
+ * Alle Methoden sind über die Instanz synchronisiert; wer Anhängen und Senden
+ * in derselben Reihenfolge halten möchte, kann ebenfalls auf der Instanz synchronisieren.
+ * Ein geschlossenes Log nimmt nichts mehr an; seine Segmente werden mit ihm vom Garbage Collector freigegeben.
+ */
+final class MessageLog {
+    private static final Log.Event WRITE_FAILED = Log.event("logWriteFailed", Log.Level.ERROR, "dir", "error");
+    private static final Log.Event DELETE_FAILED = Log.event("logDeleteFailed", Log.Level.ERROR, "dir", "error");
+
+    /**
+     * Strategie, nach der die Einträge auf die Platte geschrieben werden
+     */
+    enum Sync {
+        /**
+         * das Betriebssystem entscheidet; ein Absturz des Servers verliert nichts,
+         * ein Absturz des Rechners eventuell die letzten Einträge
+         */
+        NONE,
+        /**
+         * gesammelt in festen Abständen, siehe {@link #sync()}
+         */
+        GROUP,
+        /**
+         * nach jedem Anhängen; am sichersten, aber am langsamsten
+         */
+        ALWAYS
+    }
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final long retentionBytes;
+    private final long retentionMillis;
+    private final Sync sync;
+    private final List<Segment> segments = new ArrayList<>(); // das älteste zuerst
+    private long next; // Sequenznummer des nächsten Eintrags
+    private volatile long used = System.nanoTime(); // letztes Anhängen oder Lesen
+    private volatile boolean closed;
+
+    /**
+     * Konstruktor; öffnet das Log im übergebenen Verzeichnis oder legt es an
+     *
+     * @param dir             Verzeichnis des Logs
+     * @param segmentBytes    Größe eines Segments in Bytes
+     * @param retentionBytes  maximale Größe aller Segmente; 0 für unbegrenzt
+     * @param retentionMillis maximales Alter eines Segments; 0 für unbegrenzt
+     * @param sync            Strategie zum Schreiben auf die Platte
+     * @throws IOException Wenn das Verzeichnis oder ein Segment nicht geöffnet werden kann
+     */
+    MessageLog(Path dir, int segmentBytes, long retentionBytes, long retentionMillis, Sync sync) throws IOException {
+        this.dir = Files.createDirectories(dir);
+        this.segmentBytes = segmentBytes;
+        this.retentionBytes = retentionBytes;
+        this.retentionMillis = retentionMillis;
+        this.sync = sync;
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.filter(f -> f.toString().endsWith(Segment.SUFFIX)).sorted().toList()) {
+                segments.add(Segment.open(file));
+            }
+        }
+        if (segments.isEmpty()) segments.add(Segment.create(dir, 0, segmentBytes));
+        Segment last = active();
+        next = last.base() + last.count();
+        retain(System.currentTimeMillis());
+    }
+
+    /**
+     * Hängt alle Messages eines Frames an das Log an.
+     * Schlägt das Schreiben fehl, wird der Fehler ausgegeben und die Message nicht gespeichert;
+     * der Chat selbst läuft weiter.
+     *
+     * @param frame anzuhängender Frame
+     * @return false, wenn das Log bereits geschlossen wurde
+     */
+    synchronized boolean append(Frame frame) {
+        if (closed) return false;
+        used = System.nanoTime();
+        long now = System.currentTimeMillis();
+        try {
+            for (Frame part : frame.parts()) {
+                ByteBuffer payload = part.binary();
+                if (!active().append(payload, now)) {
+                    roll(payload.remaining(), now);
+                    active().append(payload, now);
+                }
+                next++;
+            }
+        } catch (IOException e) {
+            WRITE_FAILED.log(dir, e);
+        }
+        if (sync == Sync.ALWAYS) active().force(active().markSynced(), active().end());
+        return true;
+    }
+
+    private Segment active() {
+        return segments.get(segments.size() - 1);
+    }
+
+    private void roll(int payload, long now) throws IOException {
+        int capacity = Math.max(segmentBytes, Segment.recordSize(payload));
+        Segment full = active();
+        full.force(full.markSynced(), full.end()); // ein altes Segment wird nie wieder angefasst
+        segments.add(Segment.create(dir, next, capacity));
+        retain(now);
+    }
+
+    /**
+     * Löscht die ältesten Segmente, solange das Log zu groß ist
+     * oder sie zu alt sind; das aktuelle Segment bleibt immer erhalten
+     */
+    private void retain(long now) {
+        long total = 0;
+        for (Segment segment : segments) total += segment.capacity();
+        while (segments.size() > 1) {
+            Segment oldest = segments.get(0);
+            boolean tooBig = retentionBytes > 0 && total > retentionBytes;
+            boolean tooOld = retentionMillis > 0 && oldest.lastTimestamp() < now - retentionMillis;
+            if (!tooBig && !tooOld) break;
+            try {
+                oldest.delete();
+            } catch (IOException e) {
+                DELETE_FAILED.log(dir, e);
+                break;
+            }
+            segments.remove(0);
+            total -= oldest.capacity();
+        }
+    }
+
+    /**
+     * Liefert die letzten Messages direkt aus den abgebildeten Segmenten, ohne sie auf den Heap
+     * zu kopieren oder zu dekodieren; jeder Frame ist eine schreibgeschützte Sicht auf sein Segment,
+     * welche dessen Abbildung bis zum Senden erhält, siehe {@link Segment#message(int)}
+     *
+     * @param count maximale Anzahl an Messages
+     * @return je Message ein Frame in ihrer Reihenfolge; leer, wenn das Log leer ist
+     */
+    synchronized List<Frame> replay(int count) {
+        used = System.nanoTime();
+        List<Frame> frames = new ArrayList<>();
+        for (int s = segments.size() - 1; s >= 0 && frames.size() < count; s--) {
+            Segment segment = segments.get(s);
+            for (int end = segment.end(); end > 0 && frames.size() < count; ) {
+                end = segment.previous(end);
+                frames.add(Frame.ofBinary(segment.message(end), 1));
+            }
+        }
+        return frames.reversed();
+    }
+
+    /**
+     * @return Zeitpunkt des letzten Anhängens oder Lesens, siehe {@link System#nanoTime()}
+     */
+    long used() {
+        return used;
+    }
+
+    /**
+     * @return true, wenn das Log geschlossen wurde
+     */
+    boolean closed() {
+        return closed;
+    }
+
+    /**
+     * Schreibt alle Einträge auf die Platte und schließt das Log; weiteres Anhängen schlägt fehl
+     */
+    synchronized void close() {
+        closed = true;
+        active().force(active().markSynced(), active().end());
+    }
+
+    /**
+     * Schreibt alle bisher angehängten Einträge auf die Platte.
+     * Das eigentliche Schreiben erfolgt außerhalb der Sperre,
+     * sodass gleichzeitiges Anhängen nicht aufgehalten wird.
+     */
+    void sync() {
+        Segment segment;
+        int from;
+        int to;
+        synchronized (this) {
+            segment = active();
+            from = segment.markSynced();
+            to = segment.end();
+        }
+        segment.force(from, to);
+    }
+}
@@ -0,0 +1,145 @@
+package de.medieninformatik.server;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verzeichnis der {@link MessageLog}s aller Räume.
+ * <p>
+ * Jeder Raum erhält ein eigenes Unterverzeichnis in <code>chat.log.dir</code>
+ * (Standard <code>chat-log</code>; leer, um den Verlauf abzuschalten).
+ * Weitere Einstellungen:
+ * <ul>
+ *     <li><code>chat.log.segmentBytes</code>: Größe eines Segments (16 MiB)</li>
+ *     <li><code>chat.log.retentionBytes</code>: maximale Größe eines Raum-Logs (256 MiB, 0 für unbegrenzt)</li>
+ *     <li><code>chat.log.retentionHours</code>: maximales Alter eines Segments (168, 0 für unbegrenzt)</li>
+ *     <li><code>chat.log.sync</code>: {@link MessageLog.Sync} (GROUP)</li>
+ *     <li><code>chat.log.syncMillis</code>: Abstand zweier Sicherungen bei GROUP (100)</li>
+ *     <li><code>chat.log.replay</code>: Anzahl der Messages, die ein neuer Client erhält (50)</li>
+ *     <li><code>chat.log.maxOpen</code>: Anzahl der gleichzeitig geöffneten Logs (256)</li>
+ *     <li><code>chat.log.idleMillis</code>: Zeit, nach der ein ungenutztes Log geschlossen wird (300000)</li>
+ * </ul>
+ * Sind mehr Logs geöffnet, werden die am längsten ungenutzten geschlossen; ein geschlossenes Log
+ * wird beim nächsten Zugriff erneut geöffnet.
+ */
+final class MessageStore {
+    private static final String DIR = Config.getString("log.dir", "chat-log");
+    private static final int SEGMENT_BYTES = Config.getInt("log.segmentBytes", 16 << 20);
+    private static final long RETENTION_BYTES = Config.getLong("log.retentionBytes", 256L << 20);
+    private static final long RETENTION_HOURS = Config.getLong("log.retentionHours", 168);
+    private static final MessageLog.Sync SYNC = Config.getEnum("log.sync", MessageLog.Sync.GROUP);
+    private static final int SYNC_MILLIS = Config.getInt("log.syncMillis", 100);
+    private static final int REPLAY = Config.getInt("log.replay", 50);
+    private static final int MAX_OPEN = Math.max(1, Config.getInt("log.maxOpen", 256));
+    private static final long IDLE_MILLIS = Math.max(1, Config.getLong("log.idleMillis", 300_000));
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(IDLE_MILLIS);
+    private static final Log.Event OPEN_FAILED = Log.event("logOpenFailed", Log.Level.ERROR, "room", "error");
+
+    private final Path dir;
+    private final Map<String, MessageLog> logs = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "log");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private MessageStore(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Öffnet das Verzeichnis aus <code>chat.log.dir</code>. Bei {@link MessageLog.Sync#GROUP}
+     * werden alle Logs regelmäßig gesichert; beim Beenden der JVM werden sie immer gesichert.
+     * Ungenutzte Logs werden im Thread "log" geschlossen.
+     *
+     * @return das Verzeichnis oder null, wenn kein Verlauf gespeichert werden soll
+     */
+    static MessageStore open() {
+        if (DIR.isBlank()) return null;
+        MessageStore store = new MessageStore(Path.of(DIR).toAbsolutePath());
+        if (SYNC == MessageLog.Sync.GROUP) {
+            store.worker.scheduleWithFixedDelay(store::sync, SYNC_MILLIS, SYNC_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        store.worker.scheduleWithFixedDelay(store::closeUnused, IDLE_MILLIS, IDLE_MILLIS, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(store::sync, "log-shutdown"));
+        return store;
+    }
+
+    /**
+     * @return Anzahl der Messages, die ein neuer Client aus dem Verlauf erhält
+     */
+    int replayCount() {
+        return REPLAY;
+    }
+
+    /**
+     * Gibt das Log eines Raumes zurück und öffnet es bei Bedarf. Schlägt {@link MessageLog#append(Frame)}
+     * fehl, weil das Log inzwischen geschlossen wurde, liefert ein erneuter Aufruf ein neu geöffnetes Log.
+     *
+     * @param room Name des Raumes
+     * @return das Log oder null, wenn es nicht geöffnet werden konnte
+     */
+    MessageLog log(String room) {
+        while (true) {
+            MessageLog log = logs.get(room);
+            if (log == null) {
+                log = logs.computeIfAbsent(room, this::open);
+                if (logs.size() > MAX_OPEN) worker.execute(this::closeUnused);
+                return log;
+            }
+            if (!log.closed()) return log;
+            logs.remove(room, log); // gerade geschlossen
+        }
+    }
+
+    private MessageLog open(String room) {
+        try {
+            return new MessageLog(dir.resolve(fileName(room)), SEGMENT_BYTES, RETENTION_BYTES,
+                    TimeUnit.HOURS.toMillis(RETENTION_HOURS), SYNC);
+        } catch (IOException e) {
+            OPEN_FAILED.log(room, e);
+            return null; // der Raum funktioniert auch ohne Verlauf; beim nächsten Mal erneut versuchen
+        }
+    }
+
+    /**
+     * Schließt alle Logs, die zu lange ungenutzt sind, und danach die am längsten ungenutzten,
+     * bis höchstens <code>chat.log.maxOpen</code> geöffnet sind; läuft im Thread "log"
+     */
+    private void closeUnused() {
+        long now = System.nanoTime();
+        logs.forEach((room, log) -> {
+            if (now - log.used() >= IDLE_NANOS) close(room, log);
+        });
+        long[] used = logs.values().stream().mapToLong(MessageLog::used).sorted().toArray();
+        if (used.length <= MAX_OPEN) return;
+        long newest = used[used.length - MAX_OPEN - 1]; // zuletzt genutztes der zu schließenden Logs
+        logs.forEach((room, log) -> {
+            if (log.used() - newest <= 0) close(room, log);
+        });
+    }
+
+    private void close(String room, MessageLog log) {
+        log.close();
+        logs.remove(room, log);
+    }
+
+    /**
+     * Wandelt einen beliebigen Raumnamen in einen sicheren Verzeichnisnamen um
+     */
+    private static String fileName(String room) {
+        if (room.isEmpty()) return "%"; // kann von keinem kodierten Namen erzeugt werden
+        return URLEncoder.encode(room, StandardCharsets.UTF_8).replace(".", "%2E").replace("*", "%2A");
+    }
+
+    private void sync() {
+        logs.values().forEach(MessageLog::sync);
+    }
+}
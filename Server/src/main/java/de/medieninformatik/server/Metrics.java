@@ -0,0 +1,345 @@
+package de.medieninformatik.server;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Kennzahlen des Chat-Servers.
+ * <p>
+ * Erfasst wird über statische Methoden direkt im Ablauf des Chats; Zähler sind
+ * {@link LongAdder}, welche bei gleichzeitigem Zugriff auf mehrere Zellen ausweichen,
+ * Zeiten werden in {@link Histogram}en erfasst. Keine dieser Methoden erzeugt Objekte.
+ * Mit <code>chat.metrics=false</code> wird nichts erfasst.
+ * <p>
+ * Abgefragt werden die Kennzahlen über JMX ({@link MetricsMXBean}) oder
+ * als Text über {@link MetricsServlet}.
+ */
+final class Metrics implements MetricsMXBean {
+    static final boolean ENABLED = Config.getBoolean("metrics", true);
+    private static final Metrics INSTANCE = new Metrics();
+    private static final Log.Event JMX_FAILED = Log.event("jmxFailed", Log.Level.ERROR, "error");
+
+    private final LongAdder sessions = new LongAdder();
+    private final LongAdder messagesIn = new LongAdder();
+    private final LongAdder messagesOut = new LongAdder();
+    private final LongAdder failedSends = new LongAdder();
+    private final LongAdder evictedFrames = new LongAdder();
+    private final LongAdder evictedSessions = new LongAdder();
+    private final LongAdder expiredSessions = new LongAdder();
+    private final LongAdder queuedFrames = new LongAdder();
+    private final LongAdder throttledMessages = new LongAdder();
+    private final LongAdder delayedMessages = new LongAdder();
+    private final LongAdder duplicateMessages = new LongAdder();
+    private final LongAdder attachmentBytes = new LongAdder();
+    private final LongAdder cutAttachments = new LongAdder();
+    private final Histogram fanOut = new Histogram();
+    private final Histogram sendLatency = new Histogram();
+    private volatile long inPerSecond;
+    private volatile long outPerSecond;
+    private long lastIn; // nur im Thread "metrics"
+    private long lastOut; // nur im Thread "metrics"
+
+    private Metrics() {
+    }
+
+    /**
+     * @return die Kennzahlen des Servers
+     */
+    static Metrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Meldet die Kennzahlen bei JMX an und startet die sekündliche Berechnung der Raten
+     */
+    static void register() {
+        if (!ENABLED) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(INSTANCE, new ObjectName("de.medieninformatik.chat:type=Metrics"));
+        } catch (JMException e) {
+            JMX_FAILED.log(e);
+        }
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(INSTANCE::sample, 1, 1, TimeUnit.SECONDS);
+    }
+
+    private void sample() {
+        long in = messagesIn.sum();
+        long out = messagesOut.sum();
+        inPerSecond = in - lastIn;
+        outPerSecond = out - lastOut;
+        lastIn = in;
+        lastOut = out;
+    }
+
+    /**
+     * Eine Session wurde geöffnet ({@code +1}) oder geschlossen ({@code -1})
+     *
+     * @param delta Änderung der Anzahl
+     */
+    static void sessions(int delta) {
+        if (ENABLED) INSTANCE.sessions.add(delta);
+    }
+
+    /**
+     * @param count Anzahl der empfangenen Messages
+     */
+    static void received(int count) {
+        if (ENABLED) INSTANCE.messagesIn.add(count);
+    }
+
+    /**
+     * Ein Sendevorgang an eine Session ist erfolgreich abgeschlossen
+     *
+     * @param count Anzahl der gesendeten Messages
+     * @param nanos Dauer des Sendevorgangs
+     */
+    static void sent(int count, long nanos) {
+        if (!ENABLED) return;
+        INSTANCE.messagesOut.add(count);
+        INSTANCE.sendLatency.record(nanos);
+    }
+
+    /**
+     * Ein Sendevorgang an eine Session ist fehlgeschlagen
+     */
+    static void sendFailed() {
+        if (ENABLED) INSTANCE.failedSends.increment();
+    }
+
+    /**
+     * Ein wartender Frame wurde wegen einer vollen Warteschlange verworfen
+     */
+    static void frameEvicted() {
+        if (ENABLED) INSTANCE.evictedFrames.increment();
+    }
+
+    /**
+     * Eine Session wurde wegen einer vollen Warteschlange getrennt
+     */
+    static void sessionEvicted() {
+        if (ENABLED) INSTANCE.evictedSessions.increment();
+    }
+
+    /**
+     * Eine Session wurde getrennt, da ihr Herzschlag ausblieb, siehe {@link Heartbeat}
+     */
+    static void sessionExpired() {
+        if (ENABLED) INSTANCE.expiredSessions.increment();
+    }
+
+    /**
+     * Frames wurden einer Warteschlange hinzugefügt oder aus ihr entfernt
+     *
+     * @param delta Änderung der Anzahl wartender Frames
+     */
+    static void queued(int delta) {
+        if (ENABLED) INSTANCE.queuedFrames.add(delta);
+    }
+
+    /**
+     * @param count Anzahl der wegen der Rate einer Session verworfenen Messages, siehe {@link Throttle}
+     */
+    static void throttled(int count) {
+        if (ENABLED) INSTANCE.throttledMessages.add(count);
+    }
+
+    /**
+     * @param count Anzahl der wegen der Rate einer Session verzögerten Messages, siehe {@link Throttle}
+     */
+    static void delayed(int count) {
+        if (ENABLED) INSTANCE.delayedMessages.add(count);
+    }
+
+    /**
+     * @param count Anzahl der als Wiederholung verworfenen Messages, siehe {@link Dedup}
+     */
+    static void duplicates(int count) {
+        if (ENABLED) INSTANCE.duplicateMessages.add(count);
+    }
+
+    /**
+     * @param bytes Anzahl der empfangenen Bytes eines Anhangs, siehe {@link Attachments}
+     */
+    static void attachment(int bytes) {
+        if (ENABLED) INSTANCE.attachmentBytes.add(bytes);
+    }
+
+    /**
+     * Eine Session erhält einen Anhang nicht vollständig, da ihre Warteschlange für Anhänge voll war
+     */
+    static void attachmentCut() {
+        if (ENABLED) INSTANCE.cutAttachments.increment();
+    }
+
+    /**
+     * @param nanos Dauer eines Broadcasts an alle Mitglieder eines Raumes
+     */
+    static void fanOut(long nanos) {
+        if (ENABLED) INSTANCE.fanOut.record(nanos);
+    }
+
+    /**
+     * Gibt alle Kennzahlen im Textformat von Prometheus aus
+     *
+     * @return eine Zeile pro Kennzahl
+     */
+    String text() {
+        StringBuilder out = new StringBuilder(1024);
+        line(out, "chat_sessions", getSessions());
+        line(out, "chat_messages_in_total", getMessagesIn());
+        line(out, "chat_messages_out_total", getMessagesOut());
+        line(out, "chat_messages_in_per_second", getMessagesInPerSecond());
+        line(out, "chat_messages_out_per_second", getMessagesOutPerSecond());
+        line(out, "chat_failed_sends_total", getFailedSends());
+        line(out, "chat_evicted_frames_total", getEvictedFrames());
+        line(out, "chat_evicted_sessions_total", getEvictedSessions());
+        line(out, "chat_expired_sessions_total", getExpiredSessions());
+        line(out, "chat_queued_frames", getQueuedFrames());
+        line(out, "chat_throttled_messages_total", getThrottledMessages());
+        line(out, "chat_delayed_messages_total", getDelayedMessages());
+        line(out, "chat_duplicate_messages_total", getDuplicateMessages());
+        line(out, "chat_attachment_bytes_total", getAttachmentBytes());
+        line(out, "chat_cut_attachments_total", getCutAttachments());
+        summary(out, "chat_fanout_micros", fanOut.snapshot());
+        summary(out, "chat_send_latency_micros", sendLatency.snapshot());
+        return out.toString();
+    }
+
+    private static void line(StringBuilder out, String name, long value) {
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void summary(StringBuilder out, String name, Histogram.Snapshot snapshot) {
+        for (String quantile : new String[]{"0.5", "0.9", "0.99", "0.999"}) {
+            long value = micros(snapshot.percentile(Double.parseDouble(quantile) * 100));
+            out.append(name).append("{quantile=\"").append(quantile).append("\"} ").append(value).append('\n');
+        }
+        line(out, name + "_max", micros(snapshot.max()));
+        line(out, name + "_count", snapshot.count());
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    @Override
+    public long getSessions() {
+        return sessions.sum();
+    }
+
+    @Override
+    public long getMessagesIn() {
+        return messagesIn.sum();
+    }
+
+    @Override
+    public long getMessagesOut() {
+        return messagesOut.sum();
+    }
+
+    @Override
+    public long getMessagesInPerSecond() {
+        return inPerSecond;
+    }
+
+    @Override
+    public long getMessagesOutPerSecond() {
+        return outPerSecond;
+    }
+
+    @Override
+    public long getFailedSends() {
+        return failedSends.sum();
+    }
+
+    @Override
+    public long getEvictedFrames() {
+        return evictedFrames.sum();
+    }
+
+    @Override
+    public long getEvictedSessions() {
+        return evictedSessions.sum();
+    }
+
+    @Override
+    public long getExpiredSessions() {
+        return expiredSessions.sum();
+    }
+
+    @Override
+    public long getQueuedFrames() {
+        return queuedFrames.sum();
+    }
+
+    @Override
+    public long getThrottledMessages() {
+        return throttledMessages.sum();
+    }
+
+    @Override
+    public long getDelayedMessages() {
+        return delayedMessages.sum();
+    }
+
+    @Override
+    public long getDuplicateMessages() {
+        return duplicateMessages.sum();
+    }
+
+    @Override
+    public long getAttachmentBytes() {
+        return attachmentBytes.sum();
+    }
+
+    @Override
+    public long getCutAttachments() {
+        return cutAttachments.sum();
+    }
+
+    @Override
+    public long getFanOutP50Micros() {
+        return micros(fanOut.snapshot().percentile(50));
+    }
+
+    @Override
+    public long getFanOutP99Micros() {
+        return micros(fanOut.snapshot().percentile(99));
+    }
+
+    @Override
+    public long getFanOutMaxMicros() {
+        return micros(fanOut.snapshot().max());
+    }
+
+    @Override
+    public long getSendLatencyP50Micros() {
+        return micros(sendLatency.snapshot().percentile(50));
+    }
+
+    @Override
+    public long getSendLatencyP99Micros() {
+        return micros(sendLatency.snapshot().percentile(99));
+    }
+
+    @Override
+    public long getSendLatencyP999Micros() {
+        return micros(sendLatency.snapshot().percentile(99.9));
+    }
+
+    @Override
+    public long getSendLatencyMaxMicros() {
+        return micros(sendLatency.snapshot().max());
+    }
+}
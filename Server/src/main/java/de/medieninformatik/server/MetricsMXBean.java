@@ -0,0 +1,118 @@
+package de.medieninformatik.server;
+
+/**
+ * Kennzahlen des Chat-Servers über JMX, z.B. mit JConsole unter
+ * <code>de.medieninformatik.chat:type=Metrics</code>.
+ * Zeiten sind in Mikrosekunden angegeben.
+ */
+public interface MetricsMXBean {
+    /**
+     * @return Anzahl der verbundenen Sessions
+     */
+    long getSessions();
+
+    /**
+     * @return Anzahl der bisher empfangenen Messages
+     */
+    long getMessagesIn();
+
+    /**
+     * @return Anzahl der bisher erfolgreich an Sessions gesendeten Messages
+     */
+    long getMessagesOut();
+
+    /**
+     * @return empfangene Messages in der letzten Sekunde
+     */
+    long getMessagesInPerSecond();
+
+    /**
+     * @return gesendete Messages in der letzten Sekunde
+     */
+    long getMessagesOutPerSecond();
+
+    /**
+     * @return Anzahl der fehlgeschlagenen Sendevorgänge
+     */
+    long getFailedSends();
+
+    /**
+     * @return Anzahl der wegen einer vollen Warteschlange verworfenen Frames
+     */
+    long getEvictedFrames();
+
+    /**
+     * @return Anzahl der wegen einer vollen Warteschlange getrennten Sessions
+     */
+    long getEvictedSessions();
+
+    /**
+     * @return Anzahl der wegen eines ausbleibenden Herzschlags getrennten Sessions
+     */
+    long getExpiredSessions();
+
+    /**
+     * @return Anzahl der Frames, welche in allen Warteschlangen auf das Senden warten
+     */
+    long getQueuedFrames();
+
+    /**
+     * @return Anzahl der verworfenen Messages von Sessions, die zu schnell senden
+     */
+    long getThrottledMessages();
+
+    /**
+     * @return Anzahl der verzögerten Messages von Sessions, die zu schnell senden
+     */
+    long getDelayedMessages();
+
+    /**
+     * @return Anzahl der verworfenen Wiederholungen bereits angenommener Messages
+     */
+    long getDuplicateMessages();
+
+    /**
+     * @return Anzahl der empfangenen Bytes aller Anhänge
+     */
+    long getAttachmentBytes();
+
+    /**
+     * @return wie oft eine Session einen Anhang wegen ihrer vollen Warteschlange nicht vollständig erhielt
+     */
+    long getCutAttachments();
+
+    /**
+     * @return Median der Dauer eines Broadcasts an alle Mitglieder eines Raumes
+     */
+    long getFanOutP50Micros();
+
+    /**
+     * @return 99. Perzentil der Dauer eines Broadcasts
+     */
+    long getFanOutP99Micros();
+
+    /**
+     * @return längste Dauer eines Broadcasts
+     */
+    long getFanOutMaxMicros();
+
+    /**
+     * @return Median der Dauer eines Sendevorgangs an eine Session
+     */
+    long getSendLatencyP50Micros();
+
+    /**
+     * @return 99. Perzentil der Dauer eines Sendevorgangs
+     */
+    long getSendLatencyP99Micros();
+
+    /**
+     * @return 99,9. Perzentil der Dauer eines Sendevorgangs
+     */
+    long getSendLatencyP999Micros();
+
+    /**
+     * @return längste Dauer eines Sendevorgangs
+     */
+    long getSendLatencyMaxMicros();
+}
@@ -0,0 +1,22 @@
+package de.medieninformatik.server;
+
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+
+/**
+ * HTTP-Endpunkt <code>GET /Chat/metrics</code>, welcher die {@link Metrics}
+ * im Textformat von Prometheus ausgibt
+ */
+final class MetricsServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setContentType("text/plain; version=0.0.4");
+        resp.setCharacterEncoding("UTF-8");
+        resp.getWriter().write(Metrics.get().text());
+    }
+}
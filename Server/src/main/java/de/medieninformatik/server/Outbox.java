@@ -0,0 +1,304 @@
+package de.medieninformatik.server;
+
+import de.medieninformatik.common.Chunk;
+import de.medieninformatik.common.MessageCodec;
+import jakarta.websocket.CloseReason;
+import jakarta.websocket.SendHandler;
+import jakarta.websocket.SendResult;
+import jakarta.websocket.Session;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Begrenzte ausgehende Warteschlange einer einzelnen {@link Session}.
+ * Nachrichten werden nicht blockierend über {@link Session#getAsyncRemote()} versendet,
+ * wobei pro Session immer nur ein Sendevorgang gleichzeitig läuft.
+ * Ein langsamer Client hält so weder den Broadcast für alle anderen noch
+ * den Tomcat-Thread auf, welcher die Nachricht empfangen hat.
+ * <p>
+ * Alle Sessions teilen sich dabei denselben {@link Frame}; gesendet wird im
+ * Binärformat, sofern die Session das Subprotokoll {@link MessageCodec#BINARY_SUBPROTOCOL}
+ * ausgehandelt hat, ansonsten im Textformat.
+ * Läuft die Warteschlange über (Anzahl oder Größe der wartenden Frames),
+ * wird entsprechend der {@link Policy} verfahren.
+ * <p>
+ * Teile von Anhängen ({@link Chunk}) warten in einer eigenen Warteschlange, welche erst gesendet wird,
+ * wenn keine Frames warten; eine Message wartet so höchstens auf einen einzigen laufenden Teil.
+ * Diese Warteschlange fasst höchstens <code>chat.outbox.chunkBytes</code> (1 MiB). Passt ein Teil nicht
+ * mehr hinein, erhält die Session die übrigen Teile dieses Anhangs nicht, sondern statt seines
+ * letzten Teils ein {@link Chunk.Kind#ABORT}; einen Anhang erhalten nur Sessions im Binärformat.
+ */
+final class Outbox implements SendHandler {
+    private static final int CAPACITY = Config.getInt("outbox.capacity", 256);
+    private static final int MAX_BYTES = Config.getInt("outbox.maxBytes", 4 << 20);
+    private static final Policy POLICY = Config.getEnum("outbox.policy", Policy.DROP_OLDEST);
+    private static final int CHUNK_BYTES = Config.getInt("outbox.chunkBytes", 1 << 20);
+    private static final Log.Event CLOSE_FAILED = Log.event("closeFailed", Log.Level.WARN, "session", "error").limit(10);
+
+    private final Session session;
+    private final String room;
+    private final boolean binary;
+    private final boolean resumable;
+    private volatile String user; // angemeldeter User, siehe Presence
+    private final Deque<Frame> pending = new ArrayDeque<>(); // guarded by this
+    private long pendingBytes; // guarded by this
+    private final Deque<ByteBuffer> chunks = new ArrayDeque<>(); // guarded by this; Teile von Anhängen
+    private long chunkBytes; // guarded by this
+    private final Set<Long> cut = new HashSet<>(); // guarded by this; Anhänge, deren Teile nicht mehr passten
+    private boolean sending; // guarded by this
+    private boolean closed; // guarded by this
+    private long sentAt; // guarded by this; Beginn des laufenden Sendevorgangs
+    private int sentCount; // guarded by this; Anzahl der Messages im laufenden Sendevorgang
+
+    /**
+     * Konstruktor; erzeugt eine leere Warteschlange für die übergebene Session
+     *
+     * @param session Session, an welche die Nachrichten gesendet werden
+     * @param room      Raum, in dem sich die Session befindet
+     * @param resumable true, wenn die Session Sequenznummern erhält, um später fortgesetzt zu werden
+     */
+    Outbox(Session session, String room, boolean resumable) {
+        this.session = session;
+        this.room = room;
+        this.binary = MessageCodec.BINARY_SUBPROTOCOL.equals(session.getNegotiatedSubprotocol());
+        this.resumable = resumable;
+    }
+
+    /**
+     * @return der Raum, in dem sich die Session befindet
+     */
+    String room() {
+        return room;
+    }
+
+    /**
+     * @return true, wenn die Session das Binärformat ausgehandelt hat
+     */
+    boolean binary() {
+        return binary;
+    }
+
+    /**
+     * @return true, wenn die Session Sequenznummern erhält, siehe {@link Replay}
+     */
+    boolean resumable() {
+        return resumable;
+    }
+
+    /**
+     * @return der unter dieser Session angemeldete User oder null
+     */
+    String user() {
+        return user;
+    }
+
+    /**
+     * @param user der unter dieser Session angemeldete User oder null
+     */
+    void user(String user) {
+        this.user = user;
+    }
+
+    /**
+     * Reiht eine Nachricht zum Senden ein und startet den Sendevorgang,
+     * falls gerade keiner läuft; blockiert nie
+     *
+     * @param frame zu sendende Nachricht
+     */
+    void offer(Frame frame) {
+        Frame next;
+        synchronized (this) {
+            if (closed) return;
+            int size = size(frame);
+            while (!pending.isEmpty() && (pending.size() >= CAPACITY || pendingBytes + size > MAX_BYTES)) {
+                if (POLICY == Policy.DISCONNECT) {
+                    Metrics.sessionEvicted();
+                    closeAsync(new CloseReason(CloseReason.CloseCodes.TRY_AGAIN_LATER, "too many pending messages"));
+                    return;
+                }
+                pendingBytes -= size(pending.pollFirst()); // DROP_OLDEST
+                Metrics.frameEvicted();
+                Metrics.queued(-1);
+            }
+            if (sending) {
+                pending.addLast(frame);
+                pendingBytes += size;
+                Metrics.queued(1);
+                return;
+            }
+            sending = true;
+            next = frame;
+            started(next);
+        }
+        send(next);
+    }
+
+    /**
+     * Reiht einen Teil eines Anhangs hinter allen wartenden Frames ein und startet den Sendevorgang,
+     * falls gerade keiner läuft; blockiert nie. Sessions im Textformat erhalten keine Anhänge.
+     *
+     * @param chunk      Teil im Binärformat; wird nicht verändert und kann mit anderen Sessions geteilt werden
+     * @param kind       Art des Teils
+     * @param attachment ID des Anhangs
+     */
+    void offerChunk(ByteBuffer chunk, Chunk.Kind kind, long attachment) {
+        if (!binary) return;
+        boolean last = kind == Chunk.Kind.END || kind == Chunk.Kind.ABORT;
+        synchronized (this) {
+            if (closed) return;
+            if (cut.contains(attachment)) {
+                if (!last) return;
+                cut.remove(attachment);
+                chunk = MessageCodec.encodeChunk(Chunk.abort(attachment));
+            } else if (!last && chunkBytes + chunk.remaining() > CHUNK_BYTES) {
+                cut.add(attachment);
+                Metrics.attachmentCut();
+                return;
+            }
+            if (sending) {
+                chunks.addLast(chunk);
+                chunkBytes += chunk.remaining();
+                return;
+            }
+            sending = true;
+            sentCount = 0;
+        }
+        sendChunk(chunk);
+    }
+
+    /**
+     * Wird vom Container aufgerufen, sobald ein Sendevorgang abgeschlossen ist,
+     * und sendet gegebenenfalls die nächste wartende Nachricht
+     *
+     * @param result Ergebnis des Sendevorgangs
+     */
+    @Override
+    public void onResult(SendResult result) {
+        if (!result.isOK()) {
+            synchronized (this) {
+                sending = false;
+            }
+            Metrics.sendFailed();
+            closeAsync(new CloseReason(CloseReason.CloseCodes.UNEXPECTED_CONDITION, "send failed"));
+            return;
+        }
+        Frame next;
+        ByteBuffer chunk = null;
+        synchronized (this) {
+            if (sentCount > 0) Metrics.sent(sentCount, System.nanoTime() - sentAt);
+            next = closed ? null : pending.pollFirst();
+            if (next == null && !closed) chunk = chunks.pollFirst(); // Anhänge erst, wenn keine Message wartet
+            if (next == null && chunk == null) {
+                sending = false;
+                return;
+            }
+            if (next != null) {
+                pendingBytes -= size(next);
+                Metrics.queued(-1);
+                started(next);
+            } else {
+                chunkBytes -= chunk.remaining();
+                sentCount = 0;
+            }
+        }
+        if (next != null) send(next);
+        else sendChunk(chunk);
+    }
+
+    /**
+     * Verwirft alle wartenden Nachrichten; weitere Nachrichten werden ignoriert
+     */
+    synchronized void discard() {
+        Metrics.queued(-pending.size());
+        closed = true;
+        pending.clear();
+        pendingBytes = 0;
+        chunks.clear();
+        chunkBytes = 0;
+        cut.clear();
+    }
+
+    /**
+     * Verwirft alle wartenden Nachrichten und schließt die Session, ohne den Aufrufer zu blockieren
+     *
+     * @param reason Grund für das Schließen
+     */
+    void close(CloseReason reason) {
+        closeAsync(reason);
+    }
+
+    private void started(Frame frame) {
+        sentAt = System.nanoTime();
+        sentCount = frame.size();
+    }
+
+    /**
+     * Prüft, ob eine neue Session die übergebenen Frames vollständig erhalten kann,
+     * ohne dass die {@link Policy} greift
+     *
+     * @param frames Frames, welche als Erstes eingereiht werden sollen
+     * @return true, wenn sie zusammen in die leere Warteschlange passen
+     */
+    boolean fits(List<Frame> frames) {
+        long bytes = 0;
+        for (Frame frame : frames) bytes += size(frame);
+        return frames.size() < CAPACITY && bytes <= MAX_BYTES;
+    }
+
+    /**
+     * @return ungefähre Größe des Frames im Format dieser Session
+     */
+    private int size(Frame frame) {
+        return frame.length(binary);
+    }
+
+    private void send(Frame frame) {
+        try {
+            if (binary) session.getAsyncRemote().sendBinary(frame.binary(), this);
+            else session.getAsyncRemote().sendText(frame.text(), this);
+        } catch (IllegalStateException e) { // Session wurde bereits geschlossen
+            discard();
+        }
+    }
+
+    private void sendChunk(ByteBuffer chunk) {
+        try {
+            session.getAsyncRemote().sendBinary(chunk.duplicate(), this);
+        } catch (IllegalStateException e) { // Session wurde bereits geschlossen
+            discard();
+        }
+    }
+
+    /**
+     * Schließt die Session in einem anderen Thread, da das Senden des
+     * Close-Frames an einen hängenden Client selbst blockieren kann
+     */
+    private void closeAsync(CloseReason reason) {
+        synchronized (this) {
+            if (closed) return;
+            discard();
+        }
+        CompletableFuture.runAsync(() -> {
+            try {
+                session.close(reason);
+            } catch (IOException e) {
+                CLOSE_FAILED.log(session.getId(), e);
+            }
+        }, Threads.tasks());
+    }
+
+    /**
+     * Verhalten bei einer vollen Warteschlange
+     */
+    enum Policy {
+        DROP_OLDEST, // älteste wartende Nachricht verwerfen
+        DISCONNECT // Session trennen
+    }
+}
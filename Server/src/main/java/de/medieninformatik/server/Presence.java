@@ -0,0 +1,300 @@
+package de.medieninformatik.server;
+
+import de.medieninformatik.common.Message;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verzeichnis der angemeldeten User und ihrer Sessions.
+ * <p>
+ * Eine Session gilt als angemeldet, sobald sie eine JOIN-Message gesendet hat, und als abgemeldet
+ * nach einer LEAVE-Message oder wenn sie geschlossen wird, auch ohne LEAVE. Ein User ist in einem Raum
+ * anwesend, solange mindestens eine seiner Sessions dort angemeldet ist.
+ * <p>
+ * Jede neue Session erhält eine {@link Message.Action#ROSTER}-Message mit allen anwesenden Usern
+ * ihres Raumes (durch Zeilenumbrüche getrennt). Änderungen werden gesammelt und alle
+ * <code>chat.presence.intervalMillis</code> (250) als eine {@link Message.Action#PRESENCE}-Message
+ * mit Zeilen der Form <code>+name</code> bzw. <code>-name</code> an den Raum gesendet.
+ * Wer sich innerhalb eines Intervalls ab- und wieder anmeldet, taucht darin gar nicht auf;
+ * viele gleichzeitige Neuverbindungen erzeugen so nur eine Message pro Raum und Intervall.
+ * <p>
+ * Eine neue Session erhält stets den Stand, welcher den übrigen Mitgliedern bereits gemeldet wurde,
+ * sodass die folgenden Änderungen zu ihm passen.
+ * <p>
+ * In einem {@link Cluster} sendet jeder Knoten die auf ihm angemeldeten User eines Raumes als
+ * {@link Message.Action#ROSTER}-Message an die übrigen Knoten, sobald sie sich ändern, und zudem alle
+ * <code>chat.presence.refreshMillis</code> (5000) für alle Räume; so erfährt auch ein neu gestarteter
+ * Knoten den Stand. Anwesend ist, wer auf irgendeinem Knoten angemeldet ist. Meldet sich ein Knoten
+ * drei solcher Intervalle lang nicht, gelten seine User als abgemeldet.
+ */
+final class Presence {
+    private static final long INTERVAL_MILLIS = Config.getLong("presence.intervalMillis", 250);
+    private static final long REFRESH_NANOS = TimeUnit.MILLISECONDS.toNanos(Config.getLong("presence.refreshMillis", 5000));
+
+    private final Rooms rooms;
+    private final Cluster cluster;
+    private final Map<String, Set<Outbox>> users = new ConcurrentHashMap<>(); // User -> angemeldete Sessions
+    private final Map<String, Roster> rosters = new ConcurrentHashMap<>(); // Raum -> Anwesende
+    private final Set<String> changed = ConcurrentHashMap.newKeySet(); // Räume mit ungemeldeten Änderungen
+    private final Set<String> relay = ConcurrentHashMap.newKeySet(); // Räume mit lokalen Änderungen für den Cluster
+    private long refreshed = System.nanoTime(); // nur im Thread "presence"
+
+    private Presence(Rooms rooms, Cluster cluster) {
+        this.rooms = rooms;
+        this.cluster = cluster;
+    }
+
+    /**
+     * Startet das Verzeichnis, sofern es nicht mit <code>chat.presence=false</code> abgeschaltet ist
+     *
+     * @param rooms   Räume, an deren Mitglieder die Änderungen gesendet werden
+     * @param cluster Cluster, mit dessen übrigen Knoten die Anwesenden abgeglichen werden, oder null
+     * @return das Verzeichnis oder null, wenn es abgeschaltet ist
+     */
+    static Presence start(Rooms rooms, Cluster cluster) {
+        if (!Config.getBoolean("presence", true)) return null;
+        Presence presence = new Presence(rooms, cluster);
+        if (cluster != null) cluster.presence(presence);
+        ScheduledExecutorService publisher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "presence");
+            thread.setDaemon(true);
+            return thread;
+        });
+        publisher.scheduleWithFixedDelay(presence::publish, INTERVAL_MILLIS, INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        return presence;
+    }
+
+    /**
+     * Sendet einer neuen Session die Anwesenden ihres Raumes
+     *
+     * @param outbox Outbox der Session
+     */
+    void snapshot(Outbox outbox) {
+        Roster roster = rosters.computeIfPresent(outbox.room(), (room, current) -> {
+            outbox.offer(roster(current.announced));
+            return current;
+        });
+        if (roster == null) outbox.offer(roster(Set.of()));
+    }
+
+    /**
+     * Meldet eine Session unter einem Usernamen an; eine vorherige Anmeldung unter einem anderen Namen endet dabei
+     *
+     * @param outbox Outbox der Session
+     * @param user   Name des Users; leere Namen und solche mit Zeilenumbrüchen werden ignoriert
+     */
+    void online(Outbox outbox, String user) {
+        if (user.isBlank() || user.indexOf('\n') >= 0 || user.equals(outbox.user())) return;
+        offline(outbox);
+        outbox.user(user);
+        users.computeIfAbsent(user, name -> ConcurrentHashMap.newKeySet()).add(outbox);
+        rosters.compute(outbox.room(), (room, roster) -> {
+            if (roster == null) roster = new Roster();
+            roster.members.merge(user, 1, Integer::sum);
+            roster.touched.add(user);
+            return roster;
+        });
+        changed.add(outbox.room());
+        if (cluster != null) relay.add(outbox.room());
+    }
+
+    /**
+     * Meldet eine Session ab, sofern sie angemeldet ist
+     *
+     * @param outbox Outbox der Session
+     */
+    void offline(Outbox outbox) {
+        String user = outbox.user();
+        if (user == null) return;
+        outbox.user(null);
+        users.computeIfPresent(user, (name, sessions) -> {
+            sessions.remove(outbox);
+            return sessions.isEmpty() ? null : sessions;
+        });
+        rosters.computeIfPresent(outbox.room(), (room, roster) -> {
+            roster.members.computeIfPresent(user, (name, count) -> count > 1 ? count - 1 : null);
+            roster.touched.add(user);
+            return roster;
+        });
+        changed.add(outbox.room());
+        if (cluster != null) relay.add(outbox.room());
+    }
+
+    /**
+     * Übernimmt die auf einem anderen Knoten angemeldeten User eines Raumes
+     *
+     * @param origin Kennung des Knotens
+     * @param room   Name des Raumes
+     * @param users  alle dort angemeldeten User, durch Zeilenumbrüche getrennt
+     */
+    void remote(String origin, String room, String users) {
+        Set<String> present = new HashSet<>(users.lines().filter(line -> !line.isEmpty()).toList());
+        long now = System.nanoTime();
+        rosters.compute(room, (name, roster) -> {
+            if (roster == null) roster = new Roster();
+            Remote previous = present.isEmpty() ? roster.remote.remove(origin) : roster.remote.put(origin, new Remote(present, now));
+            if (previous != null) roster.touched.addAll(previous.users());
+            roster.touched.addAll(present);
+            return roster.empty() ? null : roster;
+        });
+        changed.add(room);
+    }
+
+    /**
+     * @param user Name des Users
+     * @return die angemeldeten Sessions des Users in allen Räumen; leer, wenn er nicht angemeldet ist
+     */
+    Set<Outbox> sessions(String user) {
+        return users.getOrDefault(user, Set.of());
+    }
+
+    /**
+     * @param user Name des Users
+     * @return true, wenn der User auf einem anderen Knoten des Clusters angemeldet ist
+     */
+    boolean elsewhere(String user) {
+        boolean[] found = new boolean[1];
+        for (String name : rosters.keySet()) {
+            rosters.computeIfPresent(name, (room, roster) -> {
+                for (Remote node : roster.remote.values()) found[0] |= node.users().contains(user);
+                return roster;
+            });
+            if (found[0]) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Stellt eine Direktnachricht allen lokalen Sessions des Empfängers zu und allen des Absenders,
+     * damit dieser sie wie seine übrigen Nachrichten angezeigt bekommt
+     *
+     * @param frame     die Direktnachricht
+     * @param sender    Name des Absenders
+     * @param recipient Name des Empfängers
+     */
+    void deliver(Frame frame, String sender, String recipient) {
+        for (Outbox outbox : sessions(recipient)) outbox.offer(frame);
+        if (!sender.equals(recipient)) {
+            for (Outbox outbox : sessions(sender)) outbox.offer(frame);
+        }
+    }
+
+    /**
+     * Sendet die gesammelten Änderungen an die jeweiligen Räume und die lokal Angemeldeten
+     * an die übrigen Knoten; läuft im Thread "presence"
+     */
+    private void publish() {
+        if (cluster != null) {
+            long now = System.nanoTime();
+            if (now - refreshed >= REFRESH_NANOS) {
+                refreshed = now;
+                refresh(now);
+            }
+            for (String name : relay) {
+                relay.remove(name);
+                List<String> local = new ArrayList<>();
+                rosters.computeIfPresent(name, (room, roster) -> {
+                    local.addAll(roster.members.keySet());
+                    return roster;
+                });
+                cluster.publish(name, roster(local)); // auch leer, damit die übrigen Knoten die Abmeldungen erfahren
+            }
+        }
+        for (String name : changed) {
+            changed.remove(name);
+            rosters.computeIfPresent(name, (room, roster) -> {
+                String delta = roster.delta();
+                if (delta != null) rooms.send(room, new Frame(new Message(Message.Action.PRESENCE, "", delta)));
+                return roster.empty() ? null : roster;
+            });
+        }
+    }
+
+    /**
+     * Vergisst die User von Knoten, die sich zu lange nicht gemeldet haben, und
+     * sendet die lokal Angemeldeten aller Räume erneut
+     */
+    private void refresh(long now) {
+        for (String name : rosters.keySet()) {
+            rosters.computeIfPresent(name, (room, roster) -> {
+                roster.remote.values().removeIf(remote -> {
+                    if (now - remote.seen() < 3 * REFRESH_NANOS) return false;
+                    roster.touched.addAll(remote.users());
+                    changed.add(room);
+                    return true;
+                });
+                if (!roster.members.isEmpty()) relay.add(room);
+                return roster;
+            });
+        }
+    }
+
+    private static Frame roster(Collection<String> users) {
+        return new Frame(new Message(Message.Action.ROSTER, "", String.join("\n", new TreeSet<>(users))));
+    }
+
+    /**
+     * Anwesende eines Raumes; wird nur innerhalb von <code>rosters.compute*</code> benutzt
+     */
+    private static final class Roster {
+        private final Map<String, Integer> members = new HashMap<>(); // User -> Anzahl angemeldeter Sessions
+        private final Set<String> announced = new HashSet<>(); // den Mitgliedern bereits gemeldet
+        private final Set<String> touched = new HashSet<>(); // seit dem letzten Abgleich an- oder abgemeldet
+        private final Map<String, Remote> remote = new HashMap<>(); // Knoten -> dort angemeldete User
+
+        /**
+         * @return true, wenn der Raum weder Anwesende hat noch solche gemeldet wurden
+         */
+        boolean empty() {
+            return members.isEmpty() && announced.isEmpty() && remote.isEmpty();
+        }
+
+        private boolean present(String user) {
+            if (members.containsKey(user)) return true;
+            for (Remote node : remote.values()) {
+                if (node.users().contains(user)) return true;
+            }
+            return false;
+        }
+
+        /**
+         * Gleicht die gemeldeten mit den tatsächlich Anwesenden ab
+         *
+         * @return die Änderungen seit dem letzten Aufruf oder null, wenn es keine gibt
+         */
+        String delta() {
+            StringBuilder delta = new StringBuilder();
+            for (String user : touched) {
+                if (present(user)) {
+                    if (announced.add(user)) delta.append('+').append(user).append('\n');
+                } else if (announced.remove(user)) {
+                    delta.append('-').append(user).append('\n');
+                }
+            }
+            touched.clear();
+            if (delta.isEmpty()) return null;
+            delta.setLength(delta.length() - 1);
+            return delta.toString();
+        }
+    }
+
+    /**
+     * Die auf einem anderen Knoten angemeldeten User eines Raumes
+     *
+     * @param users die User
+     * @param seen  Zeitpunkt der letzten Meldung, siehe {@link System#nanoTime()}
+     */
+    private record Remote(Set<String> users, long seen) {
+    }
+}
@@ -0,0 +1,96 @@
+package de.medieninformatik.server;
+
+import de.medieninformatik.common.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Begrenzter Ringpuffer der zuletzt an einen Raum gesendeten Frames, aus welchem eine
+ * unterbrochene Session nach dem Wiederverbinden die verpassten Messages nachholt.
+ * <p>
+ * Jeder Broadcast erhält eine fortlaufende Sequenznummer, welche nur Sessions, die fortgesetzt werden
+ * können, als {@link Message.Action#SEQ}-Message erhalten, siehe {@link Room#broadcast(Frame, Frame)};
+ * alle übrigen erhalten jede Message unverändert einzeln. Der Client merkt sich die höchste erhaltene
+ * Nummer und gibt sie beim Wiederverbinden an.
+ * Die Nummern beginnen bei der aktuellen Zeit in Mikrosekunden, sodass sie nach einem Neustart
+ * des Servers größer sind als alle zuvor vergebenen und eine alte Nummer nie fälschlich passt.
+ * <p>
+ * Alle Methoden müssen unter der Sperre der Instanz aufgerufen werden;
+ * {@link Rooms} hält damit zugleich Senden und Beitreten in derselben Reihenfolge.
+ */
+final class Replay {
+    private final Frame[] frames;
+    private long seq = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis()); // Nummer des letzten Frames
+    private long first = seq + 1; // Nummer des ältesten noch vorhandenen Frames
+    private long used = System.nanoTime(); // letzter Broadcast oder letztes Nachholen
+    private boolean retired;
+
+    /**
+     * Konstruktor
+     *
+     * @param capacity Anzahl der Frames, welche nachgeholt werden können
+     */
+    Replay(int capacity) {
+        frames = new Frame[capacity];
+    }
+
+    /**
+     * Vergibt die nächste Sequenznummer und legt den Frame im Puffer ab;
+     * ist dieser voll, wird der älteste Frame verworfen
+     *
+     * @param frame zu sendender Frame
+     */
+    void append(Frame frame) {
+        used = System.nanoTime();
+        seq++;
+        frames[index(seq)] = frame;
+        if (seq - first >= frames.length) first++;
+    }
+
+    /**
+     * Gibt alle Frames nach einer Sequenznummer zurück
+     *
+     * @param after zuletzt erhaltene Sequenznummer
+     * @return die Frames in ihrer Reihenfolge, gegebenenfalls leer;
+     * null, wenn die Nummer unbekannt ist oder bereits verworfene Frames fehlen würden
+     */
+    List<Frame> since(long after) {
+        used = System.nanoTime();
+        if (after > seq || after < first - 1) return null;
+        List<Frame> missed = new ArrayList<>((int) (seq - after));
+        for (long i = after + 1; i <= seq; i++) missed.add(frames[index(i)]);
+        return missed;
+    }
+
+    /**
+     * @return eine {@link Message.Action#SEQ}-Message mit der aktuellen Sequenznummer
+     */
+    Frame marker() {
+        return new Frame(new Message(Message.Action.SEQ, "", Long.toString(seq)));
+    }
+
+    /**
+     * Gibt das Replay auf, wenn es lange genug weder für einen Broadcast noch zum Nachholen genutzt wurde
+     *
+     * @param now       aktuelle Zeit, siehe {@link System#nanoTime()}
+     * @param idleNanos Zeitspanne ohne Nutzung
+     * @return true, wenn das Replay nun aufgegeben ist
+     */
+    boolean retire(long now, long idleNanos) {
+        if (now - used >= idleNanos) retired = true;
+        return retired;
+    }
+
+    /**
+     * @return true, wenn das Replay aufgegeben wurde und nicht mehr verwendet werden darf
+     */
+    boolean retired() {
+        return retired;
+    }
+
+    private int index(long seq) {
+        return (int) Long.remainderUnsigned(seq, frames.length);
+    }
+}
@@ -0,0 +1,76 @@
+package de.medieninformatik.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Begrenzter Ringpuffer ohne Locks für beliebig viele Erzeuger und genau einen Verbraucher.
+ * <p>
+ * Jeder Platz trägt eine Sequenznummer, an welcher Erzeuger und Verbraucher erkennen,
+ * ob er frei bzw. belegt ist; Erzeuger reservieren einen Platz per CAS auf das Ende.
+ * Ist der Puffer voll, schlägt {@link #offer(Object)} sofort fehl, statt zu warten.
+ *
+ * @param <T> Typ der Elemente
+ */
+final class RingBuffer<T> {
+    private final int mask;
+    private final AtomicReferenceArray<T> elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private long head; // nur vom Verbraucher benutzt
+
+    /**
+     * Konstruktor
+     *
+     * @param capacity Kapazität; wird auf die nächste Zweierpotenz aufgerundet
+     */
+    RingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        mask = size - 1;
+        elements = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) sequences.set(i, i);
+    }
+
+    /**
+     * Fügt ein Element am Ende ein; darf von beliebig vielen Threads aufgerufen werden
+     *
+     * @param element das Element
+     * @return false, wenn der Puffer voll ist
+     */
+    boolean offer(T element) {
+        long pos = tail.get();
+        while (true) {
+            int index = (int) pos & mask;
+            long diff = sequences.getAcquire(index) - pos;
+            if (diff == 0) {
+                if (tail.weakCompareAndSetVolatile(pos, pos + 1)) {
+                    elements.setPlain(index, element);
+                    sequences.setRelease(index, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false; // Platz noch vom vorigen Umlauf belegt
+            } else {
+                pos = tail.get(); // ein anderer Erzeuger war schneller
+            }
+        }
+    }
+
+    /**
+     * Entnimmt das älteste Element; darf nur von einem Thread zugleich aufgerufen werden
+     *
+     * @return das Element oder null, wenn der Puffer leer ist
+     */
+    T poll() {
+        int index = (int) head & mask;
+        if (sequences.getAcquire(index) != head + 1) return null;
+        T element = elements.getPlain(index);
+        elements.setPlain(index, null);
+        sequences.setRelease(index, head + mask + 1);
+        head++;
+        return element;
+    }
+}
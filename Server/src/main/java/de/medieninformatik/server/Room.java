@@ -0,0 +1,100 @@
+package de.medieninformatik.server;
+
+import de.medieninformatik.common.MessageCodec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ein Chat-Raum mit seinen Mitgliedern.
+ * <p>
+ * Optional werden Broadcasts über ein Zeitfenster gesammelt
+ * (<code>chat.batch.windowMillis</code>, maximal <code>chat.batch.max</code> Messages)
+ * und dann als ein einziger, gebündelter {@link Frame} an alle Mitglieder gesendet.
+ * Ein Bündel wird zudem nie länger als {@link MessageCodec#MAX_FRAME} in einem der beiden Formate;
+ * dafür wird jeder gesammelte Frame in beiden Formaten kodiert.
+ * Ist das Zeitfenster 0 (Standard), wird jede Message sofort gesendet.
+ */
+final class Room {
+    private static final int WINDOW_MILLIS = Config.getInt("batch.windowMillis", 0);
+    private static final int MAX_BATCH = Config.getInt("batch.max", 64);
+    private static final int MAX_LENGTH = MessageCodec.MAX_FRAME - 64; // Platz für eine angehängte Sequenznummer
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "room-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Set<Outbox> members = ConcurrentHashMap.newKeySet();
+    private final List<Frame> pending = new ArrayList<>(); // guarded by this
+    private int pendingLength = 1; // guarded by this; Länge des Bündels im längeren Format
+    private Frame marker; // guarded by this; Sequenznummer des letzten gesammelten Frames
+
+    /**
+     * @return die Mitglieder des Raumes
+     */
+    Set<Outbox> members() {
+        return members;
+    }
+
+    /**
+     * Sendet einen Frame an alle Mitglieder, entweder sofort
+     * oder gebündelt nach Ablauf des Zeitfensters
+     *
+     * @param frame zu sendender Frame
+     */
+    void broadcast(Frame frame) {
+        broadcast(frame, null);
+    }
+
+    /**
+     * Sendet einen Frame an alle Mitglieder, entweder sofort oder gebündelt nach Ablauf des Zeitfensters.
+     * Mitglieder, deren Session fortgesetzt werden kann, erhalten die Sequenznummer im selben Frame
+     * dahinter; alle übrigen erhalten den Frame unverändert.
+     *
+     * @param frame  zu sendender Frame
+     * @param marker Sequenznummer des Frames, siehe {@link Replay#marker()}, oder null
+     */
+    void broadcast(Frame frame, Frame marker) {
+        if (WINDOW_MILLIS <= 0) {
+            fanOut(frame, marker);
+            return;
+        }
+        boolean schedule;
+        int length = Math.max(frame.length(false), frame.length(true)) + 1; // samt Komma
+        synchronized (this) {
+            if (pendingLength + length > MAX_LENGTH) flush(); // der Frame beginnt ein neues Bündel
+            pending.add(frame);
+            pendingLength += length;
+            if (marker != null) this.marker = marker;
+            schedule = pending.size() == 1;
+            if (pending.size() >= MAX_BATCH || pendingLength >= MAX_LENGTH) flush();
+        }
+        if (schedule) FLUSHER.schedule(this::flush, WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sendet alle gesammelten Frames als ein Bündel; geschieht unter der Sperre
+     * des Raumes, damit Bündel nicht in vertauschter Reihenfolge eingereiht werden.
+     * Das Einreihen in die Outboxen blockiert nie.
+     */
+    synchronized void flush() {
+        if (pending.isEmpty()) return;
+        fanOut(Frame.batch(new ArrayList<>(pending)), marker);
+        pending.clear();
+        pendingLength = 1;
+        marker = null;
+    }
+
+    private void fanOut(Frame frame, Frame marker) {
+        long start = System.nanoTime();
+        Frame stamped = marker == null ? frame : Frame.batch(List.of(frame, marker)); // kodiert erst bei Bedarf
+        members.forEach(outbox -> outbox.offer(outbox.resumable() ? stamped : frame));
+        Metrics.fanOut(System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,12 @@
+package de.medieninformatik.server;
+
+import de.medieninformatik.common.MessageCodec;
+import jakarta.websocket.server.ServerEndpoint;
+
+/**
+ * Endpunkt für Clients, welche einen Raum über den Pfad wählen, z.B. <code>/chat/lobby</code>;
+ * das Verhalten ist ansonsten identisch zu {@link Chat}
+ */
+@ServerEndpoint(value = "/chat/{room}", subprotocols = MessageCodec.BINARY_SUBPROTOCOL)
+public class RoomChat extends Chat {
+}
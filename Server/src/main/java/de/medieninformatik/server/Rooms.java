@@ -0,0 +1,238 @@
+package de.medieninformatik.server;
+
+import de.medieninformatik.common.Message;
+import de.medieninformatik.common.MessageCodec;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Nebenläufiges Verzeichnis der Räume und ihrer Mitglieder.
+ * Betreten und Verlassen eines Raumes kosten O(1); ein Broadcast
+ * erreicht nur die Mitglieder des jeweiligen Raumes.
+ * Leere Räume werden entfernt.
+ * <p>
+ * Ist ein {@link MessageStore} vorhanden, wird jeder Broadcast im {@link MessageLog}
+ * des Raumes gespeichert und ein neues Mitglied erhält zuerst die letzten Messages daraus.
+ * Speichern und Senden bzw. Nachholen und Beitreten geschehen unter der Sperre des Logs,
+ * sodass ein neues Mitglied jede Message genau einmal und in der Reihenfolge des Logs erhält.
+ * Ist ein {@link SearchIndex} vorhanden, wird zudem jeder Broadcast darin aufgenommen.
+ * <p>
+ * Jeder Raum hat außerdem ein {@link Replay} der letzten <code>chat.resume.capacity</code> (1024) Broadcasts,
+ * welches auch erhalten bleibt, wenn der Raum leer ist; eine wiederverbundene Session erhält daraus
+ * nur die verpassten Messages statt des Verlaufs. Das Replay eines leeren Raumes wird entfernt, sobald es
+ * <code>chat.resume.idleMillis</code> (300000) lang nicht genutzt wurde; es gibt höchstens
+ * <code>chat.resume.maxRooms</code> (10000) Replays, in weiteren Räumen werden Sessions nicht fortgesetzt.
+ * Mit <code>chat.resume.capacity=0</code> werden
+ * weder Sequenznummern vergeben noch Sessions fortgesetzt. Ist ein Replay vorhanden,
+ * dient es statt des Logs als Sperre für Speichern, Senden und Beitreten.
+ */
+final class Rooms {
+    /**
+     * Raum, in dem sich Clients ohne Raumangabe befinden
+     */
+    static final String DEFAULT_ROOM = "lobby";
+    private static final int RESUME_CAPACITY = Config.getInt("resume.capacity", 1024);
+    private static final long RESUME_IDLE_MILLIS = Math.max(1, Config.getLong("resume.idleMillis", 300_000));
+    private static final long RESUME_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(RESUME_IDLE_MILLIS);
+    private static final int RESUME_ROOMS = Config.getInt("resume.maxRooms", 10_000);
+    private static final Function<String, Replay> NEW_REPLAY = name -> new Replay(RESUME_CAPACITY);
+    private static final ScheduledExecutorService SWEEPER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "resume");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+    private final Map<String, Replay> replays = new ConcurrentHashMap<>();
+    private final MessageStore store;
+    private final SearchIndex index;
+
+    /**
+     * Konstruktor; speichert den Verlauf entsprechend {@link MessageStore#open()}
+     * und durchsucht ihn entsprechend {@link SearchIndex#create()}
+     */
+    Rooms() {
+        this(MessageStore.open(), SearchIndex.create());
+    }
+
+    /**
+     * Konstruktor
+     *
+     * @param store Verlauf der Räume oder null, wenn kein Verlauf gespeichert werden soll
+     * @param index Suchindex oder null, wenn nicht gesucht werden soll
+     */
+    Rooms(MessageStore store, SearchIndex index) {
+        this.store = store;
+        this.index = index;
+        if (RESUME_CAPACITY > 0) {
+            SWEEPER.scheduleWithFixedDelay(this::sweep, RESUME_IDLE_MILLIS, RESUME_IDLE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return der Suchindex oder null, wenn nicht gesucht werden soll
+     */
+    SearchIndex index() {
+        return index;
+    }
+
+    /**
+     * Fügt eine Outbox einem Raum hinzu; der Raum wird bei Bedarf angelegt.
+     * Zuvor werden ihr die letzten Messages des Raumes aus dem Verlauf übergeben bzw. beim Fortsetzen
+     * die seit der angegebenen Sequenznummer verpassten, danach die aktuelle Sequenznummer,
+     * sofern die Session fortgesetzt werden kann.
+     * Können die verpassten Messages nicht vollständig nachgeholt werden, erhält sie stattdessen eine NOTICE.
+     *
+     * @param outbox Outbox des Mitglieds
+     * @param after  zuletzt erhaltene Sequenznummer einer unterbrochenen Session; negativ für eine neue Session
+     */
+    void join(Outbox outbox, long after) {
+        while (true) {
+            MessageLog log = log(outbox.room());
+            Replay replay = replay(outbox.room());
+            Object lock = replay != null ? replay : log;
+            if (lock == null) {
+                if (after >= 0) outbox.offer(notResumed());
+                add(outbox);
+                return;
+            }
+            synchronized (lock) {
+                if (retired(outbox.room(), replay)) continue;
+                // noch gesammelte Messages sind bereits nummeriert bzw. stehen im Log und dürfen nicht erneut ankommen
+                Room room = rooms.get(outbox.room());
+                if (room != null) room.flush();
+                catchUp(replay, log, after, outbox).forEach(outbox::offer);
+                if (replay != null && outbox.resumable()) outbox.offer(replay.marker());
+                add(outbox);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Verlauf und verpasste Messages werden in Frames bis {@link MessageCodec#MAX_FRAME} gebündelt;
+     * passen verpasste Messages nicht vollständig in die Outbox, erhält die Session stattdessen die NOTICE
+     */
+    private List<Frame> catchUp(Replay replay, MessageLog log, long after, Outbox outbox) {
+        if (after < 0) return log == null ? List.of() : Frame.batches(log.replay(store.replayCount()), outbox.binary());
+        List<Frame> missed = replay == null ? null : replay.since(after);
+        if (missed == null) return List.of(notResumed());
+        List<Frame> batches = Frame.batches(missed, outbox.binary());
+        return outbox.fits(batches) ? batches : List.of(notResumed());
+    }
+
+    private static Frame notResumed() {
+        return new Frame(new Message(Message.Action.NOTICE, "", "Verpasste Nachrichten konnten nicht nachgeholt werden"));
+    }
+
+    private void add(Outbox outbox) {
+        rooms.compute(outbox.room(), (name, room) -> {
+            if (room == null) room = new Room();
+            room.members().add(outbox);
+            return room;
+        });
+    }
+
+    /**
+     * Entfernt eine Outbox aus ihrem Raum; ein leerer Raum wird gelöscht
+     *
+     * @param outbox Outbox des Mitglieds
+     */
+    void leave(Outbox outbox) {
+        rooms.computeIfPresent(outbox.room(), (name, room) -> {
+            room.members().remove(outbox);
+            return room.members().isEmpty() ? null : room;
+        });
+    }
+
+    /**
+     * Sendet einen Frame an alle Mitglieder eines Raumes, vergibt seine Sequenznummer, speichert ihn im Verlauf
+     * und nimmt ihn in den Suchindex auf
+     *
+     * @param name  Name des Raumes
+     * @param frame zu sendender Frame
+     */
+    void broadcast(String name, Frame frame) {
+        while (true) {
+            MessageLog log = log(name);
+            Replay replay = replay(name);
+            Object lock = replay != null ? replay : log;
+            if (lock == null) send(name, frame);
+            else synchronized (lock) {
+                if (retired(name, replay)) continue;
+                if (log != null && !log.append(frame)) continue; // inzwischen geschlossen; mit neuem Log erneut
+                if (replay == null) send(name, frame);
+                else {
+                    replay.append(frame);
+                    Room room = rooms.get(name);
+                    if (room != null) room.broadcast(frame, replay.marker());
+                }
+            }
+            break;
+        }
+        if (index != null) index.add(name, frame);
+    }
+
+    /**
+     * Sendet einen Frame an alle Mitglieder eines Raumes, ohne ihn zu speichern, z.B. Änderungen der Anwesenden
+     *
+     * @param name  Name des Raumes
+     * @param frame zu sendender Frame
+     */
+    void send(String name, Frame frame) {
+        Room room = rooms.get(name);
+        if (room != null) room.broadcast(frame);
+    }
+
+    /**
+     * @param name Name des Raumes
+     * @return die aktuellen Mitglieder des Raumes; leer, wenn es ihn nicht gibt
+     */
+    List<Outbox> members(String name) {
+        Room room = rooms.get(name);
+        return room == null ? List.of() : List.copyOf(room.members());
+    }
+
+    /**
+     * @return das Replay des Raumes; null, wenn Sessions nicht fortgesetzt werden oder es bereits zu viele gibt
+     */
+    private Replay replay(String name) {
+        Replay replay = replays.get(name);
+        if (replay != null || RESUME_CAPACITY <= 0 || replays.size() >= RESUME_ROOMS) return replay;
+        return replays.computeIfAbsent(name, NEW_REPLAY);
+    }
+
+    /**
+     * Prüft unter der Sperre eines Replays, ob es inzwischen aufgegeben wurde;
+     * dann wird es entfernt und der Aufrufer versucht es mit einem neuen Replay erneut
+     */
+    private boolean retired(String name, Replay replay) {
+        if (replay == null || !replay.retired()) return false;
+        replays.remove(name, replay);
+        return true;
+    }
+
+    /**
+     * Entfernt die Replays aller leeren Räume, die zu lange nicht genutzt wurden; läuft im Thread "resume"
+     */
+    private void sweep() {
+        long now = System.nanoTime();
+        replays.forEach((name, replay) -> {
+            if (rooms.containsKey(name)) return;
+            synchronized (replay) { // unter der Sperre, da ein Beitritt unter ihr den Raum anlegt
+                if (rooms.containsKey(name) || !replay.retire(now, RESUME_IDLE_NANOS)) return;
+            }
+            replays.remove(name, replay);
+        });
+    }
+
+    private MessageLog log(String name) {
+        return store == null ? null : store.log(name);
+    }
+}
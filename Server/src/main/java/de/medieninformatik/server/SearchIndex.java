@@ -0,0 +1,293 @@
+package de.medieninformatik.server;
+
+import de.medieninformatik.common.Message;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Invertierter Index über die zuletzt gesendeten Messages.
+ * <p>
+ * Jede Message erhält eine fortlaufende Nummer; für jedes Wort, jeden User und
+ * jeden Raum wird eine aufsteigende Liste dieser Nummern als <code>int[]</code> geführt.
+ * Eine Suche schneidet diese Listen von der neuesten Message an, sodass
+ * sie nach <code>limit</code> Treffern abbrechen kann.
+ * <p>
+ * Es werden höchstens <code>chat.search.capacity</code> (Standard 100000) Messages behalten;
+ * ältere fallen heraus und werden beim Einfügen neuer Nummern aus den Listen entfernt.
+ * Nur Messages mit {@link Message.Action#SEND} werden aufgenommen.
+ */
+final class SearchIndex {
+    private static final int CAPACITY = Config.getInt("search.capacity", 100_000);
+    private static final int MAX_TERM = 64; // längere Wörter werden abgeschnitten
+
+    /**
+     * Suchanfrage; alle angegebenen Bedingungen müssen erfüllt sein
+     *
+     * @param text  Wörter, welche alle in der Message vorkommen müssen; darf leer sein
+     * @param user  User, von welchem die Message stammt, oder null
+     * @param room  Raum, in welchem die Message gesendet wurde, oder null
+     * @param from  frühester Zeitpunkt in Millisekunden seit 1970
+     * @param to    spätester Zeitpunkt in Millisekunden seit 1970
+     * @param limit maximale Anzahl an Treffern
+     */
+    record Query(String text, String user, String room, long from, long to, int limit) {
+    }
+
+    /**
+     * Treffer einer Suche
+     *
+     * @param room    Raum, in welchem die Message gesendet wurde
+     * @param time    Zeitpunkt in Millisekunden seit 1970
+     * @param message die gefundene Message
+     */
+    record Hit(String room, long time, Message message) {
+    }
+
+    private final int capacity;
+    private final Message[] messages;
+    private final String[] rooms;
+    private final long[] times;
+    private final Map<String, Postings> terms = new HashMap<>();
+    private final Map<String, Postings> users = new HashMap<>();
+    private final Map<String, Postings> roomPostings = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private int next; // Nummer der nächsten Message
+    private long lastTime;
+
+    /**
+     * Konstruktor; erzeugt einen leeren Index
+     *
+     * @param capacity maximale Anzahl an Messages im Index
+     */
+    SearchIndex(int capacity) {
+        this.capacity = capacity;
+        messages = new Message[capacity];
+        rooms = new String[capacity];
+        times = new long[capacity];
+    }
+
+    /**
+     * Erzeugt einen Index entsprechend <code>chat.search.capacity</code>
+     *
+     * @return der Index oder null, wenn die Suche abgeschaltet ist
+     */
+    static SearchIndex create() {
+        return CAPACITY > 0 ? new SearchIndex(CAPACITY) : null;
+    }
+
+    /**
+     * Nimmt alle Messages eines Frames in den Index auf
+     *
+     * @param room  Raum, in welchem der Frame gesendet wurde
+     * @param frame gesendeter Frame
+     */
+    void add(String room, Frame frame) {
+        long now = System.currentTimeMillis();
+        lock.writeLock().lock();
+        try {
+            for (Message message : frame.messages()) {
+                if (message.action() == Message.Action.SEND) add(room, message, now);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void add(String room, Message message, long now) {
+        if (next == Integer.MAX_VALUE) clear(); // Nummern sind aufgebraucht
+        int id = next++;
+        int slot = id % capacity;
+        lastTime = Math.max(lastTime, now); // Zeitpunkte steigen mit den Nummern
+        messages[slot] = message;
+        rooms[slot] = room;
+        times[slot] = lastTime;
+        int oldest = oldest();
+        for (String term : terms(message.content())) terms.computeIfAbsent(term, t -> new Postings()).add(id, oldest);
+        users.computeIfAbsent(message.user(), u -> new Postings()).add(id, oldest);
+        roomPostings.computeIfAbsent(room, r -> new Postings()).add(id, oldest);
+        if (slot == capacity - 1) prune(oldest);
+    }
+
+    private int oldest() {
+        return Math.max(0, next - capacity);
+    }
+
+    /**
+     * Entfernt Listen, welche nur noch herausgefallene Messages enthalten;
+     * geschieht einmal pro Umlauf des Puffers
+     */
+    private void prune(int oldest) {
+        terms.values().removeIf(postings -> postings.isExpired(oldest));
+        users.values().removeIf(postings -> postings.isExpired(oldest));
+        roomPostings.values().removeIf(postings -> postings.isExpired(oldest));
+    }
+
+    private void clear() {
+        Arrays.fill(messages, null);
+        Arrays.fill(rooms, null);
+        terms.clear();
+        users.clear();
+        roomPostings.clear();
+        next = 0;
+    }
+
+    /**
+     * Sucht die neuesten Messages, welche alle Bedingungen der Anfrage erfüllen
+     *
+     * @param query Suchanfrage
+     * @return die Treffer, die neueste Message zuerst
+     */
+    List<Hit> search(Query query) {
+        lock.readLock().lock();
+        try {
+            List<Postings> lists = new ArrayList<>();
+            for (String term : terms(query.text())) lists.add(terms.get(term));
+            if (query.user() != null) lists.add(users.get(query.user()));
+            if (query.room() != null) lists.add(roomPostings.get(query.room()));
+            if (lists.contains(null)) return List.of(); // eine Bedingung trifft auf keine Message zu
+            return lists.isEmpty() ? scan(query) : intersect(lists, query);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<Hit> scan(Query query) {
+        List<Hit> hits = new ArrayList<>();
+        for (int id = next - 1; id >= oldest() && hits.size() < query.limit(); id--) {
+            int slot = id % capacity;
+            if (times[slot] < query.from()) break;
+            if (times[slot] <= query.to()) hits.add(hit(slot));
+        }
+        return hits;
+    }
+
+    private List<Hit> intersect(List<Postings> lists, Query query) {
+        lists.sort(Comparator.comparingInt(Postings::size));
+        Postings smallest = lists.get(0);
+        int[] upper = new int[lists.size()]; // in den übrigen Listen liegt alles ab hier über dem Kandidaten
+        for (int k = 1; k < upper.length; k++) upper[k] = lists.get(k).size;
+        List<Hit> hits = new ArrayList<>();
+        int first = smallest.lowerBound(oldest());
+        candidates:
+        for (int i = smallest.size - 1; i >= first && hits.size() < query.limit(); i--) {
+            int id = smallest.ids[i];
+            int slot = id % capacity;
+            if (times[slot] < query.from()) break;
+            if (times[slot] > query.to()) continue;
+            for (int k = 1; k < upper.length; k++) {
+                Postings other = lists.get(k);
+                int pos = other.floor(id, upper[k]);
+                if (pos < 0) break candidates; // keine kleineren Nummern mehr
+                upper[k] = pos + 1;
+                if (other.ids[pos] != id) continue candidates;
+            }
+            hits.add(hit(slot));
+        }
+        return hits;
+    }
+
+    private Hit hit(int slot) {
+        return new Hit(rooms[slot], times[slot], messages[slot]);
+    }
+
+    /**
+     * Zerlegt einen Text in kleingeschriebene Wörter aus Buchstaben und Ziffern
+     *
+     * @param text zu zerlegender Text
+     * @return die Wörter ohne Wiederholungen
+     */
+    static Set<String> terms(String text) {
+        Set<String> result = new LinkedHashSet<>();
+        if (text == null) return result;
+        int start = -1;
+        for (int i = 0; i <= text.length(); ) {
+            int cp = i < text.length() ? text.codePointAt(i) : ' ';
+            if (Character.isLetterOrDigit(cp)) {
+                if (start < 0) start = i;
+            } else if (start >= 0) {
+                String term = text.substring(start, Math.min(i, start + MAX_TERM));
+                result.add(term.toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+            i += Character.charCount(cp);
+        }
+        return result;
+    }
+
+    /**
+     * Aufsteigende Liste von Nummern; herausgefallene Nummern am Anfang
+     * werden erst beim Vergrößern entfernt
+     */
+    private static final class Postings {
+        private int[] ids = new int[4];
+        private int size;
+
+        void add(int id, int oldest) {
+            if (size == ids.length) {
+                int live = lowerBound(oldest);
+                int count = size - live;
+                int[] target = count * 2 > ids.length ? new int[ids.length * 2] : ids;
+                System.arraycopy(ids, live, target, 0, count);
+                ids = target;
+                size = count;
+            }
+            ids[size++] = id;
+        }
+
+        int size() {
+            return size;
+        }
+
+        boolean isExpired(int oldest) {
+            return size == 0 || ids[size - 1] < oldest;
+        }
+
+        /**
+         * @return Position der ersten Nummer, welche nicht kleiner als value ist
+         */
+        int lowerBound(int value) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (ids[mid] < value) low = mid + 1;
+                else high = mid;
+            }
+            return low;
+        }
+
+        /**
+         * Sucht galoppierend rückwärts die Position der größten Nummer,
+         * welche nicht größer als id ist; die Kosten hängen nur vom Abstand zu hi ab
+         *
+         * @param id gesuchte Nummer
+         * @param hi Position, ab der alle Nummern größer als id sind
+         * @return die Position oder -1, wenn es keine solche Nummer gibt
+         */
+        int floor(int id, int hi) {
+            int bound = 1;
+            while (hi - bound >= 0 && ids[hi - bound] > id) bound <<= 1;
+            int low = Math.max(0, hi - bound);
+            int high = hi - (bound >> 1) - 1;
+            int result = low - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (ids[mid] <= id) {
+                    result = mid;
+                    low = mid + 1;
+                } else high = mid - 1;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package de.medieninformatik.server;
+
+import de.medieninformatik.common.MessageCodec;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+
+/**
+ * HTTP-Endpunkt für die Suche im {@link SearchIndex}, z.B.
+ * <code>GET /Chat/search?q=hallo+welt&amp;user=anna&amp;room=lobby&amp;from=2022-11-21T00:00:00Z&amp;limit=20</code>.
+ * <p>
+ * Gesucht wird stets in genau einem Raum, den <code>room</code> angibt; ohne ihn wird die Anfrage
+ * abgelehnt, damit niemand ungefragt die Messages aller Räume erhält.
+ * Alle übrigen Parameter sind optional; <code>from</code> und <code>to</code> werden als
+ * Millisekunden seit 1970 oder als ISO-8601-Zeitpunkt angegeben.
+ * Die Antwort ist ein JSON-Array der Treffer, der neueste zuerst:
+ * <code>[{"room":"lobby","time":1669000000000,"message":{"action":"SEND","user":"anna","message":"hallo welt"}}]</code>
+ */
+final class SearchServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+    private static final int DEFAULT_LIMIT = 50;
+    private static final int MAX_LIMIT = 1000;
+
+    private final transient SearchIndex index;
+
+    /**
+     * Konstruktor
+     *
+     * @param index zu durchsuchender Index
+     */
+    SearchServlet(SearchIndex index) {
+        this.index = index;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        String room = blankToNull(req.getParameter("room"));
+        if (room == null) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "room is required");
+            return;
+        }
+        SearchIndex.Query query;
+        try {
+            query = new SearchIndex.Query(
+                    req.getParameter("q"),
+                    blankToNull(req.getParameter("user")),
+                    room,
+                    time(req.getParameter("from"), 0),
+                    time(req.getParameter("to"), Long.MAX_VALUE),
+                    Math.min(MAX_LIMIT, Math.max(1, number(req.getParameter("limit"), DEFAULT_LIMIT)))
+            );
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        List<SearchIndex.Hit> hits = index.search(query);
+        StringBuilder out = new StringBuilder(64 + hits.size() * 128).append('[');
+        for (SearchIndex.Hit hit : hits) {
+            out.append("{\"room\":");
+            MessageCodec.quote(hit.room(), out).append(",\"time\":").append(hit.time()).append(",\"message\":");
+            MessageCodec.encode(hit.message(), out).append("},");
+        }
+        if (!hits.isEmpty()) out.setLength(out.length() - 1);
+        out.append(']');
+        resp.setContentType("application/json");
+        resp.setCharacterEncoding("UTF-8");
+        resp.getWriter().write(out.toString());
+    }
+
+    private static String blankToNull(String value) {
+        return value == null || value.isBlank() ? null : value;
+    }
+
+    private static int number(String value, int def) {
+        return value == null || value.isBlank() ? def : Integer.parseInt(value.trim());
+    }
+
+    private static long time(String value, long def) {
+        if (value == null || value.isBlank()) return def;
+        value = value.trim();
+        return value.chars().allMatch(Character::isDigit) ? Long.parseLong(value) : Instant.parse(value).toEpochMilli();
+    }
+}
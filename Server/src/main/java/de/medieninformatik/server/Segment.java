@@ -0,0 +1,229 @@
+package de.medieninformatik.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Eine in den Speicher abgebildete Datei des {@link MessageLog}s.
+ * <p>
+ * Jeder Eintrag besteht aus [Länge][Zeitstempel][Message im Binärformat][Länge];
+ * über die abschließende Länge kann das Segment auch rückwärts gelesen werden.
+ * Die führende Länge wird zuletzt geschrieben, sodass ein beim Absturz
+ * unvollständiger Eintrag beim Öffnen erkannt und verworfen wird.
+ * Der Dateiname ist die Sequenznummer des ersten Eintrags.
+ * Nicht threadsicher; der Zugriff wird über das {@link MessageLog} synchronisiert.
+ */
+final class Segment {
+    static final String SUFFIX = ".log";
+    private static final int HEADER = Integer.BYTES + Long.BYTES;
+    private static final int TRAILER = Integer.BYTES;
+
+    private final Path file;
+    private final long base;
+    private final MappedByteBuffer buffer;
+    private int position; // Ende des letzten vollständigen Eintrags
+    private int synced; // bis hierhin ist das Segment sicher auf der Platte
+    private int count;
+    private long lastTimestamp;
+
+    private Segment(Path file, long base, MappedByteBuffer buffer) {
+        this.file = file;
+        this.base = base;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Legt ein neues, leeres Segment an
+     *
+     * @param dir      Verzeichnis des Logs
+     * @param base     Sequenznummer des ersten Eintrags
+     * @param capacity Größe der Datei in Bytes
+     * @return das neue Segment
+     * @throws IOException Wenn die Datei nicht angelegt werden kann
+     */
+    static Segment create(Path dir, long base, int capacity) throws IOException {
+        Path file = dir.resolve("%019d%s".formatted(base, SUFFIX));
+        return new Segment(file, base, map(file, capacity));
+    }
+
+    /**
+     * Öffnet ein bestehendes Segment und sucht das Ende des letzten vollständigen Eintrags
+     *
+     * @param file Datei des Segments
+     * @return das geöffnete Segment
+     * @throws IOException Wenn die Datei nicht gelesen werden kann, nicht wie ein Segment benannt
+     *                     oder größer als 2 GiB ist
+     */
+    static Segment open(Path file) throws IOException {
+        String name = file.getFileName().toString();
+        long base;
+        try {
+            base = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            throw new IOException("invalid segment name " + file, e);
+        }
+        long size = Files.size(file);
+        if (size > Integer.MAX_VALUE) throw new IOException("segment too large " + file);
+        Segment segment = new Segment(file, base, map(file, (int) size));
+        segment.recover();
+        return segment;
+    }
+
+    private static MappedByteBuffer map(Path file, int capacity) throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+    }
+
+    private void recover() {
+        int pos = 0;
+        while (pos + HEADER + TRAILER <= buffer.capacity()) {
+            int length = buffer.getInt(pos);
+            if (length <= 0 || length > buffer.capacity() - pos - HEADER - TRAILER) break;
+            if (buffer.getInt(pos + HEADER + length) != length) break;
+            lastTimestamp = buffer.getLong(pos + Integer.BYTES);
+            pos += HEADER + length + TRAILER;
+            count++;
+        }
+        position = pos;
+        synced = pos;
+        // Reste eines unvollständigen Eintrags dürfen beim nächsten Öffnen nicht als gültig gelten
+        if (pos + Integer.BYTES <= buffer.capacity() && buffer.getInt(pos) != 0) {
+            for (int i = pos; i < buffer.capacity(); i++) buffer.put(i, (byte) 0);
+        }
+    }
+
+    /**
+     * Größe eines Eintrags samt Verwaltungsdaten
+     *
+     * @param payload Länge der Message im Binärformat
+     * @return benötigte Bytes im Segment
+     */
+    static int recordSize(int payload) {
+        return HEADER + payload + TRAILER;
+    }
+
+    /**
+     * Hängt einen Eintrag an, sofern er noch in das Segment passt
+     *
+     * @param payload   Message im Binärformat; die Position des Puffers bleibt unverändert
+     * @param timestamp Zeitpunkt des Eintrags
+     * @return false, wenn das Segment voll ist
+     */
+    boolean append(ByteBuffer payload, long timestamp) {
+        int length = payload.remaining();
+        if (recordSize(length) > buffer.capacity() - position) return false;
+        buffer.put(position + HEADER, payload, payload.position(), length);
+        buffer.putInt(position + HEADER + length, length);
+        buffer.putLong(position + Integer.BYTES, timestamp);
+        buffer.putInt(position, length); // zuletzt: macht den Eintrag gültig
+        position += recordSize(length);
+        lastTimestamp = timestamp;
+        count++;
+        return true;
+    }
+
+    /**
+     * @return Ende des letzten Eintrags; 0 bei einem leeren Segment
+     */
+    int end() {
+        return position;
+    }
+
+    /**
+     * Liefert den Beginn des Eintrags, welcher an der übergebenen Position endet
+     *
+     * @param end Ende eines Eintrags
+     * @return Beginn desselben Eintrags
+     */
+    int previous(int end) {
+        return end - recordSize(buffer.getInt(end - TRAILER));
+    }
+
+    /**
+     * @param start Beginn eines Eintrags
+     * @return Länge der Message des Eintrags in Bytes
+     */
+    int length(int start) {
+        return buffer.getInt(start);
+    }
+
+    /**
+     * Liefert die Message eines Eintrags, ohne sie zu kopieren oder zu dekodieren.
+     * Die Sicht hält die Abbildung erreichbar, sodass diese nicht freigegeben wird, solange sie benutzt wird,
+     * auch wenn das Segment inzwischen gelöscht wurde; ein geschriebener Eintrag wird nie mehr verändert.
+     *
+     * @param start Beginn des Eintrags
+     * @return eine schreibgeschützte Sicht auf die Message in der Abbildung
+     */
+    ByteBuffer message(int start) {
+        return buffer.slice(start + HEADER, length(start)).asReadOnlyBuffer();
+    }
+
+    /**
+     * Markiert alle bisherigen Einträge als gesichert; das eigentliche Sichern
+     * erfolgt anschließend mit {@link #force(int, int)}
+     *
+     * @return Beginn des bislang nicht gesicherten Bereichs, welcher bei {@link #end()} endet
+     */
+    int markSynced() {
+        int from = synced;
+        synced = position;
+        return from;
+    }
+
+    /**
+     * Schreibt einen Bereich auf die Platte. Darf ohne Synchronisation aufgerufen werden,
+     * da bereits geschriebene Einträge nicht mehr verändert werden.
+     *
+     * @param from Beginn des Bereichs
+     * @param to   Ende des Bereichs
+     */
+    void force(int from, int to) {
+        if (to > from) buffer.force(from, to - from);
+    }
+
+    /**
+     * @return Sequenznummer des ersten Eintrags
+     */
+    long base() {
+        return base;
+    }
+
+    /**
+     * @return Anzahl der Einträge
+     */
+    int count() {
+        return count;
+    }
+
+    /**
+     * @return Größe der Datei in Bytes
+     */
+    int capacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * @return Zeitpunkt des letzten Eintrags; 0 bei einem leeren Segment
+     */
+    long lastTimestamp() {
+        return lastTimestamp;
+    }
+
+    /**
+     * Löscht die Datei des Segments; die Abbildung im Speicher wird vom
+     * Garbage Collector freigegeben
+     *
+     * @throws IOException Wenn die Datei nicht gelöscht werden kann
+     */
+    void delete() throws IOException {
+        Files.deleteIfExists(file);
+    }
+}
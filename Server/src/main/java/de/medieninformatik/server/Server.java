@@ -4,12 +4,22 @@ import org.apache.catalina.Context;
 import org.apache.catalina.LifecycleException;
 import org.apache.catalina.Service;
 import org.apache.catalina.connector.Connector;
+import org.apache.catalina.servlets.DefaultServlet;
 import org.apache.catalina.startup.Tomcat;
+import org.apache.tomcat.util.modeler.Registry;
+import org.apache.tomcat.websocket.server.WsSci;
+
+import jakarta.websocket.DeploymentException;
+import jakarta.websocket.server.ServerContainer;
 
 import java.io.IOException;
 import java.net.InetAddress;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -17,7 +27,14 @@ import java.util.logging.Logger;
  * Utility-Klasse zum Starten des Servers
  */
 public class Server {
-    private static final int PORT = 8080;
+    private static final int PORT = Config.getInt("port", 8080);
+    private static final int MAX_CONNECTIONS = Config.getInt("connector.maxConnections", 65_536);
+    private static final int ACCEPT_COUNT = Config.getInt("connector.acceptCount", 1024);
+    private static final String WEBAPP = Config.getString("webapp", "");
+    private static final Log.Event DOC_BASE = Log.event("docBase", Log.Level.INFO, "path");
+    private static final Log.Event LISTENING = Log.event("listening", Log.Level.INFO, "url", "threads");
+    private static final Log.Event STARTED = Log.event("started", Log.Level.INFO, "millis", "sinceLaunchMillis");
+    private static final Log.Event STOP_FAILED = Log.event("stopFailed", Log.Level.ERROR, "error");
 
     /**
      * Privater Konstruktor; da eine Instanziierung nicht vonnöten ist
@@ -26,41 +43,94 @@ public class Server {
     }
 
     /**
-     * Startet den Server auf dem vorher definierten Port.
+     * Startet den Server auf dem eingestellten Port (<code>chat.port</code>, Standard 8080).
+     * Der Connector nimmt bis zu <code>chat.connector.maxConnections</code> gleichzeitige
+     * Verbindungen an und bearbeitet sie mit dem Executor aus {@link Threads#connector(Service)}.
      * Zudem wird eine URL des Servers erstellt.
+     * <p>
+     * Standardmäßig wird ein Kontext ohne Dokumentenverzeichnis erstellt, bei dem die Endpunkte
+     * direkt beim {@link ServerContainer} registriert werden; so entfallen JSP und das Durchsuchen
+     * des Klassenpfads nach Annotationen, und Tomcat registriert keine eigenen MBeans
+     * (die Werte aus {@link Metrics} bleiben erhalten). Nur wenn mit <code>chat.webapp</code> ein Verzeichnis
+     * angegeben ist, wird dieses wie zuvor als vollständige Webapp bereitgestellt.
+     * <p>
+     * Beendet wird der Server durch ein Signal (z.B. Strg+C), woraufhin ein Shutdown-Hook
+     * Tomcat herunterfährt.
      *
      * @throws LifecycleException Exception
      * @throws IOException Exception
      */
     static void start() throws LifecycleException, IOException {
+        long started = System.nanoTime();
         String webapps = "Chat";
-        String doc = "web";
 
         Logger.getLogger("").setLevel(Level.SEVERE);
 
+        if (WEBAPP.isBlank()) Registry.disableRegistry(); // keine MBeans für Tomcats eigene Komponenten
         Tomcat tomcat = new Tomcat();
         final String tmpDir = System.getProperty("java.io.tmpdir");
         tomcat.setBaseDir(tmpDir);
-        Path docBase = Paths.get(doc).toAbsolutePath();
-        Context ctx = tomcat.addWebapp(webapps, docBase.toString());
+        Context ctx;
+        if (WEBAPP.isBlank()) {
+            ctx = tomcat.addContext("/" + webapps, null);
+            // ohne gemappte Servlet erreicht eine Anfrage den Filter der WebSocket-Implementierung nicht
+            Tomcat.addServlet(ctx, "default", new DefaultServlet());
+            ctx.addServletMappingDecoded("/", "default");
+            ctx.addServletContainerInitializer(new WsSci(), null);
+            ctx.addServletContainerInitializer((classes, servletContext) -> {
+                ServerContainer container = (ServerContainer) servletContext.getAttribute(ServerContainer.class.getName());
+                try {
+                    container.addEndpoint(Chat.class);
+                    container.addEndpoint(RoomChat.class);
+                } catch (DeploymentException e) {
+                    throw new IllegalStateException(e);
+                }
+            }, null);
+        } else {
+            Path docBase = Paths.get(WEBAPP).toAbsolutePath();
+            ctx = tomcat.addWebapp(webapps, docBase.toString());
+        }
+        SearchIndex index = Chat.searchIndex();
+        if (index != null) {
+            Tomcat.addServlet(ctx, "search", new SearchServlet(index));
+            ctx.addServletMappingDecoded("/search", "search");
+        }
+        if (Metrics.ENABLED) {
+            Threads.tasks().execute(Metrics::register); // JMX wird für die Bereitschaft nicht benötigt
+            Tomcat.addServlet(ctx, "metrics", new MetricsServlet());
+            ctx.addServletMappingDecoded("/metrics", "metrics");
+        }
 
+        Service service = tomcat.getService();
+        Executor executor = Threads.connector(service);
         Connector con = new Connector();
         con.setPort(PORT);
-
-        Service service = tomcat.getService();
+        con.setProperty("maxConnections", Integer.toString(MAX_CONNECTIONS));
+        con.setProperty("acceptCount", Integer.toString(ACCEPT_COUNT));
+        con.getProtocolHandler().setExecutor(executor);
         service.addConnector(con);
 
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> stop(tomcat, executor), "server-shutdown"));
         tomcat.start();
-        System.out.printf("Doc-base: %s%n", ctx.getDocBase());
+        if (ctx.getDocBase() != null) DOC_BASE.log(ctx.getDocBase());
         String url = con.getScheme() + "://" +
                 InetAddress.getLocalHost().getHostAddress() + ":" +
                 con.getPort() + ctx.getPath();
-        System.out.printf("URL: %s%n", url);
+        LISTENING.log(url, Threads.mode());
+        Duration sinceLaunch = ProcessHandle.current().info().startInstant()
+                .map(launch -> Duration.between(launch, Instant.now())).orElse(Duration.ZERO);
+        STARTED.log((System.nanoTime() - started) / 1_000_000, sinceLaunch.toMillis());
 
-        // noinspection ResultOfMethodCallIgnored
-        System.in.read();
+        tomcat.getServer().await(); // bis der Shutdown-Hook den Server beendet
+    }
 
-        tomcat.stop();
-        tomcat.destroy();
+    private static void stop(Tomcat tomcat, Executor executor) {
+        try {
+            tomcat.stop();
+            tomcat.destroy();
+        } catch (LifecycleException e) {
+            STOP_FAILED.log(e);
+        }
+        if (executor instanceof ExecutorService own) own.close(); // nicht vom Service verwaltet
     }
 }
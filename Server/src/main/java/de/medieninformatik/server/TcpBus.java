@@ -0,0 +1,270 @@
+package de.medieninformatik.server;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link Bus} als vollständiges Netz aus TCP-Verbindungen.
+ * <p>
+ * Jeder Knoten nimmt unter <code>chat.cluster.listen</code> (z.B. <code>127.0.0.1:9101</code>)
+ * Verbindungen an und baut selbst zu jedem Knoten aus <code>chat.cluster.peers</code>
+ * (durch Kommata getrennt) eine Verbindung auf, über welche er ausschließlich sendet.
+ * Da jeder Knoten seine Nachrichten über genau eine Verbindung je Empfänger schreibt,
+ * bleibt ihre Reihenfolge erhalten.
+ * <p>
+ * Pro Empfänger werden bis zu <code>chat.cluster.queue</code> (10000) Nachrichten gepuffert,
+ * etwa solange dieser noch nicht gestartet ist; darüber hinaus werden neue Nachrichten verworfen.
+ * Eine unterbrochene Verbindung wird mit wachsendem Abstand erneut aufgebaut.
+ * <p>
+ * Ohne Rechner (z.B. <code>9101</code>) wird nur auf der Loopback-Adresse angenommen. Für jede andere Adresse
+ * muss mit <code>chat.cluster.secret</code> ein gemeinsames Geheimnis aller Knoten eingestellt sein;
+ * ist es eingestellt, sendet der annehmende Knoten jeder Verbindung eine Zufallszahl und nimmt nur Nachrichten an,
+ * wenn der andere Knoten mit deren HMAC-SHA256 unter dem Geheimnis antwortet.
+ */
+final class TcpBus implements Bus {
+    private static final int QUEUE = Config.getInt("cluster.queue", 10_000);
+    private static final int MAX_MESSAGE = 64 << 20;
+    private static final Log.Event ACCEPT_FAILED = Log.event("clusterAccept", Log.Level.ERROR, "error");
+    private static final Log.Event RECEIVE_FAILED = Log.event("clusterReceive", Log.Level.WARN, "peer", "error");
+    private static final Log.Event QUEUE_FULL = Log.event("clusterQueueFull", Log.Level.WARN, "peer");
+    private static final Log.Event REJECTED = Log.event("clusterRejected", Log.Level.WARN, "peer");
+    private static final int CHALLENGE = 32;
+    private static final int HANDSHAKE_MILLIS = 5000;
+
+    private final InetSocketAddress listen;
+    private final SecretKeySpec secret; // null, wenn kein Geheimnis eingestellt ist
+    private final SecureRandom random = new SecureRandom();
+    private final List<Peer> peers = new ArrayList<>();
+    private ServerSocket server;
+    private volatile boolean closed;
+
+    /**
+     * Konstruktor; liest Adresse, Knoten und Geheimnis aus <code>chat.cluster.listen</code>,
+     * <code>chat.cluster.peers</code> und <code>chat.cluster.secret</code>
+     *
+     * @throws IllegalArgumentException Wenn eine Adresse ungültig ist oder ohne Geheimnis
+     *                                  auf einer anderen als der Loopback-Adresse angenommen werden soll
+     */
+    public TcpBus() {
+        String listenValue = Config.getString("cluster.listen", "").trim();
+        listen = listenValue.indexOf(':') < 0
+                ? new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(listenValue))
+                : address(listenValue);
+        String key = Config.getString("cluster.secret", "");
+        secret = key.isEmpty() ? null : new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+        if (secret == null && (listen.isUnresolved() || !listen.getAddress().isLoopbackAddress())) {
+            throw new IllegalArgumentException("chat.cluster.secret is required to listen on " + listen);
+        }
+        for (String peer : Config.getString("cluster.peers", "").split(",")) {
+            if (!peer.isBlank()) peers.add(new Peer(address(peer)));
+        }
+    }
+
+    private static InetSocketAddress address(String value) {
+        int colon = value.lastIndexOf(':');
+        if (colon < 0) throw new IllegalArgumentException("expected host:port: " + value);
+        return new InetSocketAddress(value.substring(0, colon).trim(), Integer.parseInt(value.substring(colon + 1).trim()));
+    }
+
+    /**
+     * @return HMAC-SHA256 der Zufallszahl unter dem Geheimnis
+     */
+    private byte[] sign(byte[] challenge) throws IOException {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(secret);
+            return mac.doFinal(challenge);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void start(Listener listener) throws IOException {
+        server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(listen);
+        daemon("cluster-accept", () -> accept(listener));
+        for (Peer peer : peers) peer.thread = daemon("cluster-send-" + peer.address, peer::run);
+    }
+
+    @Override
+    public void publish(ByteBuffer message) {
+        for (Peer peer : peers) peer.offer(message);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            if (server != null) server.close();
+        } catch (IOException ignored) {
+            // wird ohnehin beendet
+        }
+        peers.forEach(Peer::close);
+    }
+
+    private void accept(Listener listener) {
+        while (!closed) {
+            try {
+                Socket socket = server.accept();
+                daemon("cluster-receive-" + socket.getRemoteSocketAddress(), () -> receive(socket, listener));
+            } catch (IOException e) {
+                if (!closed) ACCEPT_FAILED.log(e);
+            }
+        }
+    }
+
+    private void receive(Socket socket, Listener listener) {
+        try (socket; DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16))) {
+            if (secret != null && !verify(socket, in)) {
+                REJECTED.log(socket.getRemoteSocketAddress());
+                return;
+            }
+            while (!closed) {
+                int length = in.readInt();
+                if (length < 0 || length > MAX_MESSAGE) throw new IOException("invalid message length " + length);
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                listener.receive(ByteBuffer.wrap(bytes));
+            }
+        } catch (EOFException e) {
+            // Knoten wurde beendet
+        } catch (IOException | RuntimeException e) {
+            if (!closed) RECEIVE_FAILED.log(socket.getRemoteSocketAddress(), e);
+        }
+    }
+
+    /**
+     * Sendet eine Zufallszahl und prüft die Antwort des anderen Knotens
+     */
+    private boolean verify(Socket socket, DataInputStream in) throws IOException {
+        byte[] challenge = new byte[CHALLENGE];
+        random.nextBytes(challenge);
+        socket.setSoTimeout(HANDSHAKE_MILLIS);
+        socket.getOutputStream().write(challenge);
+        socket.getOutputStream().flush();
+        byte[] response = new byte[CHALLENGE];
+        in.readFully(response);
+        socket.setSoTimeout(0);
+        return MessageDigest.isEqual(sign(challenge), response);
+    }
+
+    private static Thread daemon(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Ausgehende Verbindung zu einem anderen Knoten samt Warteschlange
+     */
+    private final class Peer {
+        private final InetSocketAddress address;
+        private final BlockingQueue<ByteBuffer> queue = new ArrayBlockingQueue<>(QUEUE);
+        private final AtomicLong dropped = new AtomicLong();
+        private volatile Socket socket;
+        private volatile Thread thread;
+
+        Peer(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        void offer(ByteBuffer message) {
+            if (!queue.offer(message.duplicate()) && dropped.getAndIncrement() == 0) {
+                QUEUE_FULL.log(address);
+            }
+        }
+
+        /**
+         * Baut die Verbindung auf und schreibt alle wartenden Nachrichten;
+         * geschrieben wird erst, wenn die Warteschlange leer ist
+         */
+        void run() {
+            long backoff = 100;
+            while (!closed) {
+                try (Socket s = new Socket()) {
+                    s.connect(address, HANDSHAKE_MILLIS);
+                    s.setTcpNoDelay(true);
+                    if (secret != null) answer(s);
+                    socket = s;
+                    backoff = 100;
+                    dropped.set(0);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), 1 << 16));
+                    while (!closed) {
+                        write(out, queue.take());
+                        for (ByteBuffer next; (next = queue.poll()) != null; ) write(out, next);
+                        out.flush();
+                    }
+                } catch (IOException e) {
+                    if (closed) return;
+                    try {
+                        Thread.sleep(backoff);
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    backoff = Math.min(backoff * 2, 5000);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Beantwortet die Zufallszahl des annehmenden Knotens
+         */
+        private void answer(Socket s) throws IOException {
+            s.setSoTimeout(HANDSHAKE_MILLIS);
+            byte[] challenge = new DataInputStream(s.getInputStream()).readNBytes(CHALLENGE);
+            if (challenge.length < CHALLENGE) throw new EOFException();
+            s.getOutputStream().write(sign(challenge));
+            s.setSoTimeout(0);
+        }
+
+        private void write(DataOutputStream out, ByteBuffer message) throws IOException {
+            out.writeInt(message.remaining());
+            if (message.hasArray()) {
+                out.write(message.array(), message.arrayOffset() + message.position(), message.remaining());
+            } else {
+                byte[] bytes = new byte[message.remaining()];
+                message.get(bytes);
+                out.write(bytes);
+            }
+        }
+
+        /**
+         * Weckt den sendenden Thread, auch wenn er gerade auf Nachrichten wartet, und schließt die Verbindung
+         */
+        void close() {
+            Thread t = thread;
+            if (t != null) t.interrupt();
+            try {
+                Socket s = socket;
+                if (s != null) s.close();
+            } catch (IOException ignored) {
+                // wird ohnehin beendet
+            }
+        }
+    }
+}
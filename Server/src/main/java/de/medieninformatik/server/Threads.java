@@ -0,0 +1,112 @@
+package de.medieninformatik.server;
+
+import org.apache.catalina.Service;
+import org.apache.catalina.core.StandardThreadExecutor;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Utility-Klasse für die Threads des Servers.
+ * <p>
+ * Mit <code>chat.executor=virtual</code> erhält jede Anfrage des Connectors und jede
+ * Hintergrundaufgabe des Chats einen eigenen virtuellen Thread; ansonsten (<code>platform</code>)
+ * werden Pools von Plattform-Threads genutzt, deren Größe über
+ * <code>chat.executor.minThreads</code>, <code>chat.executor.maxThreads</code> und
+ * <code>chat.executor.idleMillis</code> eingestellt wird.
+ * <p>
+ * In beiden Fällen belegt eine ruhende WebSocket-Verbindung keinen Thread,
+ * da der NIO-Connector sie nur über seinen Poller beobachtet.
+ */
+final class Threads {
+    /**
+     * Art der verwendeten Threads
+     */
+    enum Mode {
+        /**
+         * Pools von Plattform-Threads
+         */
+        PLATFORM,
+        /**
+         * ein virtueller Thread pro Aufgabe
+         */
+        VIRTUAL
+    }
+
+    private static final Mode MODE = Config.getEnum("executor", Mode.PLATFORM);
+    private static final int MIN_THREADS = Config.getInt("executor.minThreads", 25);
+    private static final int MAX_THREADS = Config.getInt("executor.maxThreads", 200);
+    private static final int IDLE_MILLIS = Config.getInt("executor.idleMillis", 60_000);
+    private static final ExecutorService TASKS = MODE == Mode.VIRTUAL
+            ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("chat-task-", 0).factory())
+            : pool();
+
+    /**
+     * Privater Konstruktor; da eine Instanziierung nicht vonnöten ist
+     */
+    private Threads() {
+    }
+
+    /**
+     * @return die eingestellte Art der Threads
+     */
+    static Mode mode() {
+        return MODE;
+    }
+
+    /**
+     * Erzeugt den Executor für die Anfragen eines Connectors.
+     * Ein Pool von Plattform-Threads wird dem Service hinzugefügt und mit diesem
+     * gestartet und beendet; ein Executor für virtuelle Threads muss nach dem Beenden
+     * des Servers selbst geschlossen werden.
+     *
+     * @param service Service, zu dem der Connector gehört
+     * @return der Executor
+     */
+    static Executor connector(Service service) {
+        if (MODE == Mode.VIRTUAL) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("http-exec-", 0).factory());
+        }
+        StandardThreadExecutor executor = new StandardThreadExecutor();
+        executor.setName("http-exec");
+        executor.setNamePrefix("http-exec-");
+        executor.setMinSpareThreads(MIN_THREADS);
+        executor.setMaxThreads(MAX_THREADS);
+        executor.setMaxIdleTime(IDLE_MILLIS);
+        service.addExecutor(executor);
+        return executor;
+    }
+
+    /**
+     * Executor für kurze Hintergrundaufgaben des Chats, z.B. das Schließen einer Session.
+     * Mit Plattform-Threads nutzt er wie der Connector höchstens <code>chat.executor.maxThreads</code>
+     * Threads, welche nach <code>chat.executor.idleMillis</code> ohne Aufgabe enden; weitere Aufgaben warten.
+     *
+     * @return der gemeinsame Executor
+     */
+    static Executor tasks() {
+        return TASKS;
+    }
+
+    private static ExecutorService pool() {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, IDLE_MILLIS, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), daemon("chat-task-"));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private static ThreadFactory daemon(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,113 @@
+package de.medieninformatik.server;
+
+import de.medieninformatik.common.Message;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Begrenzt die Rate, mit der eine Session Messages senden darf (Token-Bucket).
+ * <p>
+ * Eine Session erhält <code>chat.rate.perSecond</code> (20) Tokens pro Sekunde und darf bis zu
+ * <code>chat.rate.burst</code> (40) davon ansammeln; jede empfangene Message kostet ein Token.
+ * Ein Frame mit mehreren Messages wird angenommen, solange noch mindestens ein Token übrig ist,
+ * und darf den Bucket überziehen; die folgenden Messages müssen dann entsprechend länger warten.
+ * <p>
+ * Der Füllstand wird nicht als Anzahl, sondern als der Zeitpunkt gespeichert, zu welchem der
+ * Bucket wieder voll wäre; so genügt ein einziges {@link AtomicLong}, das per CAS aktualisiert wird,
+ * und das Nachfüllen ergibt sich aus der vergangenen Zeit.
+ * <p>
+ * Was mit Messages über der Rate geschieht, bestimmt <code>chat.rate.policy</code>, siehe {@link Policy}.
+ * Mit <code>chat.rate.perSecond=0</code> ist die Begrenzung abgeschaltet.
+ */
+final class Throttle {
+    static final int PER_SECOND = Config.getInt("rate.perSecond", 20);
+    private static final int BURST = Math.max(1, Config.getInt("rate.burst", 40));
+    private static final Policy POLICY = Config.getEnum("rate.policy", Policy.NOTICE);
+    private static final long MAX_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(Config.getLong("rate.maxDelayMillis", 1000));
+    private static final long INTERVAL = PER_SECOND > 0 ? TimeUnit.SECONDS.toNanos(1) / PER_SECOND : 0;
+    private static final long TOLERANCE = (BURST - 1) * INTERVAL;
+    private static final Log.Event THROTTLED = Log.event("throttled", Log.Level.INFO, "session", "policy").limit(10);
+
+    private final Outbox outbox;
+    private final AtomicLong full = new AtomicLong(System.nanoTime()); // Zeitpunkt, an dem der Bucket wieder voll ist
+    private volatile boolean noticed; // Hinweis seit der letzten angenommenen Message gesendet
+
+    /**
+     * Verhalten bei Messages über der Rate
+     */
+    enum Policy {
+        DROP, // verwerfen
+        DELAY, // den empfangenden Thread bis zu chat.rate.maxDelayMillis warten lassen, danach verwerfen
+        NOTICE // verwerfen und den Client einmalig mit einer NOTICE darauf hinweisen
+    }
+
+    /**
+     * Konstruktor
+     *
+     * @param outbox Outbox der Session, an welche Hinweise gesendet werden
+     */
+    Throttle(Outbox outbox) {
+        this.outbox = outbox;
+    }
+
+    /**
+     * @return true, wenn die Rate überhaupt begrenzt wird
+     */
+    static boolean enabled() {
+        return PER_SECOND > 0;
+    }
+
+    /**
+     * Prüft, ob die Messages eines empfangenen Frames weitergereicht werden dürfen;
+     * wartet je nach {@link Policy} auch, bis dies der Fall ist
+     *
+     * @param session ID der Session, für das Log
+     * @param count   Anzahl der Messages im Frame
+     * @return true, wenn die Messages weitergereicht werden dürfen
+     */
+    boolean admit(String session, int count) {
+        long wait = acquire(count, POLICY == Policy.DELAY ? MAX_DELAY_NANOS : 0);
+        if (wait > 0) {
+            Metrics.delayed(count);
+            sleep(wait);
+        } else if (wait < 0) {
+            Metrics.throttled(count);
+            if (!noticed) {
+                noticed = true;
+                THROTTLED.log(session, POLICY);
+                if (POLICY == Policy.NOTICE) outbox.offer(new Frame(new Message(Message.Action.NOTICE, "",
+                        "Zu viele Nachrichten; höchstens %d pro Sekunde, weitere werden verworfen".formatted(PER_SECOND))));
+            }
+            return false;
+        }
+        noticed = false;
+        return true;
+    }
+
+    /**
+     * Entnimmt Tokens, sofern mindestens eines bereits oder nach höchstens <code>maxWait</code> verfügbar ist
+     *
+     * @return 0, wenn die Tokens sofort entnommen wurden; die Wartezeit in Nanosekunden,
+     * wenn sie entnommen wurden, aber erst nach dieser Zeit genutzt werden dürfen;
+     * -1, wenn nicht entnommen wurde
+     */
+    private long acquire(int count, long maxWait) {
+        long now = System.nanoTime();
+        while (true) {
+            long current = full.get();
+            long start = current - now > 0 ? current : now; // ein voller Bucket läuft nicht über
+            long wait = start - now - TOLERANCE;
+            if (wait > maxWait) return -1;
+            if (full.compareAndSet(current, start + count * INTERVAL)) return Math.max(0, wait);
+        }
+    }
+
+    private static void sleep(long nanos) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package de.medieninformatik.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed Timer Wheel für sehr viele, grobe Zeitgeber.
+ * <p>
+ * Das Rad besteht aus einer festen Anzahl Fächer, von denen ein eigener Thread pro Tick genau eines
+ * abarbeitet. Ein {@link Timer} liegt in dem Fach seines Ablaufzeitpunktes und zählt mit, wie viele
+ * volle Umdrehungen er noch warten muss. Einplanen und Abbrechen kosten O(1), ein Tick nur die Timer
+ * des einen Faches, unabhängig davon, wie viele insgesamt eingeplant sind.
+ * Die Fächer sind doppelt verkettete Listen, deren Glieder die Timer selbst sind;
+ * ein Timer kann daher beliebig oft erneut eingeplant werden, ohne dass Objekte entstehen.
+ * <p>
+ * Die Genauigkeit ist ein Tick; ein Timer läuft nie vor seinem Zeitpunkt ab.
+ */
+final class TimerWheel {
+    private final Timer[] slots; // Kopf der Liste jedes Faches
+    private final int mask;
+    private final long tickNanos;
+    private final List<Timer> due = new ArrayList<>(); // nur im Thread des Rades
+    private long tick; // guarded by this; Nummer des nächsten abzuarbeitenden Ticks
+
+    /**
+     * Ein Zeitgeber des Rades; alle Felder werden unter der Sperre des Rades verändert
+     */
+    abstract static class Timer {
+        private Timer prev;
+        private Timer next;
+        private long rounds;
+        private int slot = -1; // -1, solange der Timer nicht eingeplant ist
+
+        /**
+         * Wird bei Ablauf im Thread des Rades aufgerufen; darf nicht blockieren
+         */
+        protected abstract void expired();
+    }
+
+    /**
+     * Konstruktor; startet den Thread des Rades als Daemon
+     *
+     * @param name       Name des Threads
+     * @param tickMillis Dauer eines Ticks
+     * @param slots      Anzahl der Fächer; wird auf die nächste Zweierpotenz aufgerundet
+     */
+    TimerWheel(String name, long tickMillis, int slots) {
+        int size = Integer.highestOneBit(Math.max(2, slots) - 1) << 1;
+        this.slots = new Timer[size];
+        this.mask = size - 1;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        Thread thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Plant einen Timer ein; ein bereits eingeplanter Timer wird dabei verschoben
+     *
+     * @param timer       der Timer
+     * @param delayMillis Zeit bis zum Ablauf
+     */
+    synchronized void schedule(Timer timer, long delayMillis) {
+        unlink(timer);
+        long ticks = Math.max(1, (TimeUnit.MILLISECONDS.toNanos(delayMillis) + tickNanos - 1) / tickNanos);
+        long target = tick + ticks;
+        timer.rounds = (target - tick) / slots.length;
+        timer.slot = (int) (target & mask);
+        timer.next = slots[timer.slot];
+        if (timer.next != null) timer.next.prev = timer;
+        slots[timer.slot] = timer;
+    }
+
+    /**
+     * Bricht einen Timer ab, sofern er eingeplant ist
+     *
+     * @param timer der Timer
+     */
+    synchronized void cancel(Timer timer) {
+        unlink(timer);
+    }
+
+    private void unlink(Timer timer) {
+        if (timer.slot < 0) return;
+        if (timer.prev != null) timer.prev.next = timer.next;
+        else slots[timer.slot] = timer.next;
+        if (timer.next != null) timer.next.prev = timer.prev;
+        timer.prev = null;
+        timer.next = null;
+        timer.slot = -1;
+    }
+
+    private void run() {
+        long next = System.nanoTime() + tickNanos;
+        while (true) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+                continue;
+            }
+            advance();
+            for (Timer timer : due) timer.expired(); // außerhalb der Sperre, damit er sich erneut einplanen kann
+            due.clear();
+            next += tickNanos;
+        }
+    }
+
+    /**
+     * Nimmt die abgelaufenen Timer aus dem aktuellen Fach und zählt die Umdrehungen der übrigen herunter
+     */
+    private synchronized void advance() {
+        Timer timer = slots[(int) (tick & mask)];
+        while (timer != null) {
+            Timer next = timer.next;
+            if (timer.rounds > 0) timer.rounds--;
+            else {
+                unlink(timer);
+                due.add(timer);
+            }
+            timer = next;
+        }
+        tick++;
+    }
+}
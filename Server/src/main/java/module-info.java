@@ -4,6 +4,7 @@ module de.medieninformatik.server {
     requires org.apache.tomcat.embed.websocket;
     requires org.apache.tomcat.embed.el;
     requires java.desktop;
+    requires java.management;
     requires java.instrument; // wird benötigt damit Tomcat Zugriff auf den ChatServer hat
     exports de.medieninformatik.server;
 }